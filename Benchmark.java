@@ -0,0 +1,307 @@
+package gitlet;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Benchmarks of the storage of Gitlet, whose main program may be
+ * invoked as follows:
+ *      java gitlet.Benchmark NAME
+ * in an empty directory, where it builds a scratch repository that
+ * is deleted afterwards. NAME is one of:
+ *      delta      pack size and checkout latency against delta depth.
+ *      chunking   store size and bytes written for edits to a large
+ *                 binary file, with and without chunking.
+ *      codec      size and encode/decode time of a large commit with
+ *                 Java serialization and with the Codec format.
+ *      transfer   throughput, allocation and collections of writing a
+ *                 large uncompressed blob to the working directory
+ *                 through the heap, through a stream buffer, and by
+ *                 FileChannel.transferTo.
+ * @author Haoqing Xuan
+ */
+public class Benchmark {
+    /** the file edited by the benchmarks. */
+    private static final File FILE = new File("bench.txt");
+    /** the number of timed runs averaged for each measurement. */
+    private static final int RUNS = 20;
+
+    /** run the benchmark named by ARGS[0].
+     * @param args given input. */
+    public static void main(String... args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java gitlet.Benchmark NAME");
+            return;
+        }
+        if (new File(".gitlet").exists() || FILE.exists()) {
+            System.out.println("Run the benchmark in an empty directory.");
+            return;
+        }
+        try {
+            switch (args[0]) {
+            case "delta":
+                delta();
+                break;
+            case "chunking":
+                chunking();
+                break;
+            case "codec":
+                codec();
+                break;
+            case "transfer":
+                transfer();
+                break;
+            default:
+                System.out.println("No benchmark with that name exists.");
+            }
+        } finally {
+            delete(new File(".gitlet").toPath());
+            FILE.delete();
+        }
+    }
+
+    /** commit 100 versions of a 2000-line file that differ in a few
+     * lines each, then repack them with several delta depths and
+     * report the pack size and the time to check out the newest and
+     * the oldest version. */
+    private static void delta() throws IOException {
+        final int lines = 2000, versions = 100, edits = 3;
+        Random random = new Random(0);
+        List<String> text = new ArrayList<>();
+        for (int i = 0; i < lines; i += 1) {
+            text.add("line " + i + " value " + random.nextLong());
+        }
+        Repo repo = new Repo();
+        repo.init();
+        List<String> commits = new ArrayList<>();
+        for (int v = 0; v < versions; v += 1) {
+            for (int e = 0; e < edits; e += 1) {
+                text.set(random.nextInt(lines), "edit " + random.nextLong());
+            }
+            Utils.writeContents(FILE, String.join("\n", text) + "\n");
+            repo.add(FILE.getName());
+            commits.add(repo.commit("version " + v).getCommitSHA());
+        }
+        String newest = commits.get(versions - 1), oldest = commits.get(0);
+        System.out.printf("%d versions of a %d-byte file, loose: %d bytes%n",
+                versions, FILE.length(), size(new File(".gitlet")));
+        System.out.printf("%6s %12s %14s %14s%n",
+                "depth", "pack bytes", "newest (ms)", "oldest (ms)");
+        for (int depth : new int[] {0, 1, 4, 10, 50}) {
+            Pack.repack(depth);
+            System.out.printf("%6d %12d %14.3f %14.3f%n", depth,
+                    size(Pack.PACK_DIR), checkout(repo, newest),
+                    checkout(repo, oldest));
+        }
+    }
+
+    /** commit 8 versions of a 16 MB random binary file, each made
+     * from the last by overwriting a few small regions and inserting
+     * a few bytes, once as whole blobs and once chunked, and report
+     * the size of the store and the bytes each commit wrote. */
+    private static void chunking() throws IOException {
+        final int size = 16 << 20, versions = 8, edits = 4, editSize = 100;
+        System.out.printf("%d versions of a %d-byte binary file%n",
+                versions, size);
+        System.out.printf("%8s %14s %18s %12s%n",
+                "chunked", "store bytes", "written/commit", "time (ms)");
+        for (boolean chunked : new boolean[] {false, true}) {
+            Config.set("core.chunking", String.valueOf(chunked));
+            Random random = new Random(0);
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            Repo repo = new Repo();
+            repo.init();
+            long written = 0, start = System.nanoTime();
+            for (int v = 0; v < versions; v += 1) {
+                for (int e = 0; v > 0 && e < edits; e += 1) {
+                    byte[] edit = new byte[editSize];
+                    random.nextBytes(edit);
+                    System.arraycopy(edit, 0, data,
+                            random.nextInt(data.length - editSize), editSize);
+                }
+                if (v > 0) {
+                    int at = random.nextInt(data.length);
+                    byte[] grown = new byte[data.length + 10];
+                    System.arraycopy(data, 0, grown, 0, at);
+                    System.arraycopy(data, at, grown, at + 10,
+                            data.length - at);
+                    data = grown;
+                }
+                Files.write(FILE.toPath(), data);
+                long before = size(new File(".gitlet"));
+                repo.add(FILE.getName());
+                repo.commit("version " + v);
+                written += size(new File(".gitlet")) - before;
+            }
+            System.out.printf("%8b %14d %18d %12.1f%n", chunked,
+                    size(new File(".gitlet")), written / versions,
+                    (System.nanoTime() - start) / 1e6);
+            delete(new File(".gitlet").toPath());
+        }
+    }
+
+    /** encode and decode a commit of 10000 files many times, with
+     * Java serialization and with Codec, and report the average
+     * time of each and the size of the encoded commit. */
+    private static void codec() {
+        final int files = 10000, runs = 200;
+        Random random = new Random(0);
+        Commit commit = new Commit("codec", null);
+        for (int i = 0; i < files; i += 1) {
+            commit.getBlobs().put("src/dir" + (i % 100) + "/file" + i
+                    + ".java", Utils.sha1("blob " + random.nextLong()));
+        }
+        System.out.printf("a commit of %d files%n", files);
+        System.out.printf("%14s %10s %14s %14s%n",
+                "format", "bytes", "encode (ms)", "decode (ms)");
+        long encode = 0, decode = 0;
+        byte[] bytes = null;
+        for (int i = 0; i < runs; i += 1) {
+            long start = System.nanoTime();
+            bytes = Utils.serialize(commit);
+            encode += System.nanoTime() - start;
+            start = System.nanoTime();
+            Utils.readObject(new ByteArrayInputStream(bytes), Commit.class);
+            decode += System.nanoTime() - start;
+        }
+        System.out.printf("%14s %10d %14.3f %14.3f%n", "serialization",
+                bytes.length, encode / 1e6 / runs, decode / 1e6 / runs);
+        encode = 0;
+        decode = 0;
+        for (int i = 0; i < runs; i += 1) {
+            long start = System.nanoTime();
+            bytes = Codec.encode(Codec.COMMIT, commit);
+            encode += System.nanoTime() - start;
+            start = System.nanoTime();
+            Codec.read(new ByteArrayInputStream(bytes), Codec.COMMIT,
+                    Commit::decode, Commit.class);
+            decode += System.nanoTime() - start;
+        }
+        System.out.printf("%14s %10d %14.3f %14.3f%n", "codec",
+                bytes.length, encode / 1e6 / runs, decode / 1e6 / runs);
+    }
+
+    /** commit a 32 MB random file stored uncompressed, then write its
+     * blob back to FILE many times by each path and report the
+     * throughput, the bytes allocated per write and the number and
+     * time of garbage collections. */
+    private static void transfer() throws IOException {
+        final int size = 32 << 20, runs = 20;
+        Config.set("core.compression", "0");
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        Files.write(FILE.toPath(), data);
+        data = null;
+        Repo repo = new Repo();
+        repo.init();
+        repo.add(FILE.getName());
+        String id = repo.commit("transfer").getBlobs().get(FILE.getName());
+        System.out.printf("%d writes of a %d-byte blob%n", runs, size);
+        System.out.printf("%10s %10s %16s %8s %10s%n", "path", "MB/s",
+                "allocated/write", "GCs", "GC (ms)");
+        String[] paths = {"heap", "stream", "transfer"};
+        for (String path : paths) {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            System.gc();
+            long allocated = allocated(threads), gcs = gcCount();
+            long gcTime = gcTime(), start = System.nanoTime();
+            for (int i = 0; i < runs; i += 1) {
+                switch (path) {
+                case "heap":
+                    Utils.writeContents(FILE, Blobs.load(id).getContent());
+                    break;
+                case "stream":
+                    Blobs.load(id).streamTo(FILE);
+                    break;
+                default:
+                    Blobs.load(id).writeTo(FILE);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%10s %10.1f %16d %8d %10d%n", path,
+                    (double) size * runs / (1 << 20) / seconds,
+                    (allocated(threads) - allocated) / runs,
+                    gcCount() - gcs, gcTime() - gcTime);
+        }
+    }
+
+    /** return the bytes allocated so far by this thread, or 0 if
+     * THREADS cannot tell.
+     * @param threads given thread bean. */
+    private static long allocated(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /** return the number of garbage collections so far. */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    /** return the milliseconds spent in garbage collection so far. */
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return time;
+    }
+
+    /** return the average milliseconds REPO takes to check out FILE
+     * from COMMIT with nothing cached.
+     * @param repo given repo.
+     * @param commit given commit. */
+    private static double checkout(Repo repo, String commit)
+            throws IOException {
+        long total = 0;
+        for (int i = 0; i < RUNS; i += 1) {
+            ObjectStore.clearCache();
+            long start = System.nanoTime();
+            repo.checkout(commit, FILE.getName());
+            total += System.nanoTime() - start;
+        }
+        return total / 1e6 / RUNS;
+    }
+
+    /** return the total size of the files under DIR.
+     * @param dir given directory. */
+    private static long size(File dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            return files.map(Path::toFile).filter(File::isFile)
+                    .mapToLong(File::length).sum();
+        }
+    }
+
+    /** delete DIR and everything under it, if it exists.
+     * @param dir given directory. */
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) files
+                    .sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -1,27 +1,280 @@
 package gitlet;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Haoqing Xuan
  */
-/** define the blob class.
+/** define the blob class. A blob is stored once in the ObjectStore
+ * under its contentID; commits and the stage only keep the contentID.
+ * Files are hashed, stored and checked out through a fixed-size
+ * buffer, so no file is ever held in memory whole. When core.chunking
+ * is set, files of at least core.chunkThreshold bytes are stored as a
+ * list of content-defined chunks instead, so versions that differ in
+ * a few places share all their other chunks.
  * @author Haoqing Xuan. */
 public class Blobs implements Serializable {
-    /** keep the content of the file. */
+    /** pinned to the blobs of the first version of gitlet, whose
+     * commits and staged files hold blobs with their contents inline,
+     * so that they can still be read. */
+    private static final long serialVersionUID = -2890965264414713490L;
+    /** the directory that stores the contents of all blobs. */
+    static final File BLOB_DIR = new File(".gitlet/blobs");
+    /** the default size of the smallest file that is chunked. */
+    private static final int DEFAULT_CHUNK_THRESHOLD = 1 << 20;
+    /** the default average size of a chunk. */
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+    /** keep the content of the file, read lazily from the store.
+     * Blobs serialized by the first version of gitlet hold it
+     * inline. */
     private byte[] content;
     /** keep the contentSHA1 of the file.*/
     private String contentID;
 
-    /** initialize blobs.
-     * @param file */
-    public Blobs(File file) {
-        content = Utils.readContents(file);
-        contentID = Utils.sha1(content);
+    /** initialize a blob that is already in the store.
+     * @param id the contentID of the blob. */
+    private Blobs(String id) {
+        contentID = id;
+    }
+    /** return the stored blob with ID, its content is
+     * not read until getContent is called.
+     * @param id given contentID. */
+    public static Blobs load(String id) {
+        return new Blobs(id);
+    }
+    /** hash FILE and store it, unless a blob with the same
+     * contentID is already stored, in a single pass.
+     * @return the stored blob.
+     * @param file given file. */
+    public static Blobs store(File file) {
+        if (Config.getBoolean("core.chunking", false)
+                && file.length() >= Config.getInt("core.chunkThreshold",
+                        DEFAULT_CHUNK_THRESHOLD)) {
+            return storeChunks(file);
+        }
+        MessageDigest md = Utils.sha1Digest();
+        try {
+            File tmp = Files.createTempFile(BLOB_DIR.toPath(), "tmp_", "")
+                    .toFile();
+            try (InputStream in = Files.newInputStream(file.toPath());
+                 OutputStream out = Utils.writeObjectContents(tmp)) {
+                byte[] buffer = new byte[Utils.BUFFER_SIZE];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    md.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+            String id = Utils.toHex(md.digest());
+            if (ObjectStore.contains(ObjectStore.BLOB, id)) {
+                Files.delete(tmp.toPath());
+            } else {
+                Files.move(tmp.toPath(),
+                        ObjectStore.loose(ObjectStore.BLOB, id).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new Blobs(id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+    /** hash FILE and store it as a chunk list, storing each
+     * of its chunks that is not already stored, in a single pass.
+     * @return the stored blob.
+     * @param file given file. */
+    private static Blobs storeChunks(File file) {
+        int size = Config.getInt("core.chunkSize", DEFAULT_CHUNK_SIZE);
+        if (Integer.bitCount(size) != 1 || size < 64) {
+            throw Utils.error("core.chunkSize must be a power of two.");
+        }
+        MessageDigest md = Utils.sha1Digest();
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream chunks = new DataOutputStream(list);
+        int count = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            chunks.writeInt(0);
+            Chunker chunker = new Chunker(in, size);
+            for (byte[] chunk = chunker.next(); chunk != null;
+                 chunk = chunker.next()) {
+                md.update(chunk);
+                String chunkID = Utils.sha1((Object) chunk);
+                ObjectStore.write(ObjectStore.BLOB, chunkID, chunk);
+                chunks.write(Utils.fromHex(chunkID));
+                chunks.writeInt(chunk.length);
+                count += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] contents = list.toByteArray();
+        ByteBuffer.wrap(contents).putInt(count);
+        String id = Utils.toHex(md.digest());
+        if (!ObjectStore.contains(ObjectStore.BLOB, id)) {
+            ObjectStore.write(ObjectStore.CHUNK_LIST, id, contents);
+        }
+        return new Blobs(id);
+    }
+    /** return the contentID FILE would have, reading it
+     * through a fixed-size buffer.
+     * @param file given file. */
+    public static String hash(File file) {
+        MessageDigest md = Utils.sha1Digest();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return Utils.toHex(md.digest());
+    }
+    /** write the content of this blob to FILE, creating or
+     * overwriting it, without reading it into memory whole. A blob
+     * stored loose and uncompressed is copied by the file system,
+     * without passing through the heap. The content is written to a
+     * temporary file next to FILE, which then replaces FILE, so FILE
+     * is left as it was if the blob cannot be read.
+     * @param file given file. */
+    public void writeTo(File file) {
+        File loose = ObjectStore.findLoose(ObjectStore.BLOB, contentID);
+        if (loose == null || !transfer(loose, file)) {
+            streamTo(file);
+        }
+    }
+    /** copy the loose object SOURCE to FILE with FileChannel.transferTo
+     * and return true, unless SOURCE is compressed, in which case FILE
+     * is not touched and return false.
+     * @param source given loose object.
+     * @param file given file. */
+    private static boolean transfer(File source, File file) {
+        try (FileChannel in = FileChannel.open(source.toPath())) {
+            long start = Utils.contentsOffset(in);
+            if (start < 0) {
+                return false;
+            }
+            File tmp = temporary(file);
+            try (FileChannel out = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                long size = in.size();
+                for (long n = start; n < size;) {
+                    n += in.transferTo(n, size - n, out);
+                }
+            } catch (IOException excp) {
+                tmp.delete();
+                throw excp;
+            }
+            replace(tmp, file);
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+    /** write the content of this blob to FILE through a fixed-size
+     * buffer, inflating and joining chunks as needed.
+     * @param file given file. */
+    void streamTo(File file) {
+        File tmp = temporary(file);
+        try {
+            try (InputStream in =
+                         ObjectStore.open(ObjectStore.BLOB, contentID);
+                 OutputStream out = Files.newOutputStream(tmp.toPath(),
+                         StandardOpenOption.CREATE_NEW,
+                         StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[Utils.BUFFER_SIZE];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    out.write(buffer, 0, n);
+                }
+            } catch (IOException | RuntimeException excp) {
+                tmp.delete();
+                throw excp;
+            }
+            replace(tmp, file);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+    /** return the temporary file the content of FILE is written to
+     * before it replaces FILE, which is a hidden file in the same
+     * directory, so that it is created with the usual permissions and
+     * can be renamed over FILE.
+     * @param file given file. */
+    private static File temporary(File file) {
+        File absolute = file.getAbsoluteFile();
+        File tmp = new File(absolute.getParentFile(),
+                "." + absolute.getName() + ".gitlet-tmp");
+        tmp.delete();
+        return tmp;
+    }
+    /** move TMP over FILE.
+     * @param tmp given temporary file.
+     * @param file given file. */
+    private static void replace(File tmp, File file) throws IOException {
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw excp;
+        }
+    }
+    /** return the blob to serialize in place of this one, which
+     * keeps only the contentID, the content being in BLOB_DIR. */
+    private Object writeReplace() {
+        return content == null ? this : new Blobs(contentID);
+    }
+    /** return this blob, read by serialization, once the content
+     * that blobs of the first version of gitlet hold inline is in
+     * BLOB_DIR, so commands can read it like any other blob. */
+    private Object readResolve() {
+        if (content != null
+                && !ObjectStore.contains(ObjectStore.BLOB, contentID)) {
+            BLOB_DIR.mkdir();
+            try (OutputStream out = Utils.writeObjectContents(
+                    ObjectStore.loose(ObjectStore.BLOB, contentID))) {
+                out.write(content);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return this;
+    }
+    /** return the staged blob recorded in FILE by a staging area
+     * written before Stage existed.
+     * @param file given file. */
+    public static Blobs read(File file) {
+        return Codec.read(file, Codec.BLOB, Blobs::decode, Blobs.class);
+    }
+    /** return the blob read from IN.
+     * @param in given input.
+     * @param version the version of the format. */
+    static Blobs decode(DataInputStream in, int version)
+            throws IOException {
+        return new Blobs(Codec.readID(in));
     }
     /** get the content.
      * @return content. */
     public byte[] getContent() {
+        if (content == null) {
+            try (InputStream in =
+                    ObjectStore.open(ObjectStore.BLOB, contentID)) {
+                content = in.readAllBytes();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
         return content;
     }
     /** get the contentID.
@@ -30,4 +283,3 @@ public class Blobs implements Serializable {
         return contentID;
     }
 }
-
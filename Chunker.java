@@ -0,0 +1,105 @@
+package gitlet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Splits a stream into content-defined chunks with FastCDC. A
+ * boundary is cut where a gear rolling hash of the last bytes matches
+ * a mask, so an edit only changes the chunks around it and the
+ * chunks before and after it are found again in the new version.
+ * Chunks are between a quarter and four times the average size; a
+ * stricter mask is used below the average size and a looser one
+ * above it, which keeps chunk sizes close to the average.
+ * @author Haoqing Xuan
+ */
+class Chunker {
+    /** the random value added to the hash for each byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** the stream being chunked. */
+    private final InputStream in;
+    /** the smallest chunk. */
+    private final int min;
+    /** the average chunk. */
+    private final int average;
+    /** the largest chunk. */
+    private final int max;
+    /** the mask that cuts a chunk smaller than average. */
+    private final long smallMask;
+    /** the mask that cuts a chunk larger than average. */
+    private final long largeMask;
+    /** the bytes read but not yet returned. */
+    private final byte[] buffer;
+    /** the number of bytes in buffer. */
+    private int length;
+    /** whether in has been read to its end. */
+    private boolean done;
+
+    /** a chunker of IN into chunks of about AVERAGE bytes, which
+     * must be a power of two.
+     * @param in given stream.
+     * @param average given average. */
+    Chunker(InputStream in, int average) {
+        int bits = Integer.numberOfTrailingZeros(average);
+        this.in = in;
+        this.average = average;
+        this.min = average / 4;
+        this.max = average * 4;
+        this.smallMask = mask(bits + 2);
+        this.largeMask = mask(bits - 2);
+        this.buffer = new byte[max];
+    }
+
+    /** return a mask of the BITS highest bits of a long.
+     * @param bits given bits. */
+    private static long mask(int bits) {
+        return -1L << (Long.SIZE - bits);
+    }
+
+    /** return the next chunk, or null at the end of the stream. */
+    byte[] next() throws IOException {
+        if (!done && length < max) {
+            int n = in.readNBytes(buffer, length, max - length);
+            done = length + n < max;
+            length += n;
+        }
+        if (length == 0) {
+            return null;
+        }
+        int cut = boundary();
+        byte[] chunk = Arrays.copyOf(buffer, cut);
+        System.arraycopy(buffer, cut, buffer, 0, length - cut);
+        length -= cut;
+        return chunk;
+    }
+
+    /** return the length of the chunk at the start of buffer. */
+    private int boundary() {
+        if (length <= min) {
+            return length;
+        }
+        long hash = 0;
+        int i = min, normal = Math.min(average, length);
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & smallMask) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i += 1) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if ((hash & largeMask) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+}
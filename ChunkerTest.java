@@ -0,0 +1,101 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/** Tests that Chunker splits a stream into chunks that join back
+ * into it, of bounded sizes, and that survive an edit.
+ *  @author Haoqing Xuan
+ */
+public class ChunkerTest {
+
+    /** the average chunk size used. */
+    private static final int AVERAGE = 1024;
+
+    /** The chunks of streams of many lengths, empty and shorter than
+     * a chunk among them, join back into the stream, and all but the
+     * last are between a quarter and four times the average size. */
+    @Test
+    public void splitTest() throws IOException {
+        Random random = new Random(6);
+        for (int length : new int[] {0, 1, AVERAGE / 4, AVERAGE * 4,
+            AVERAGE * 4 + 1, 200000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            List<byte[]> chunks = chunks(data);
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            for (int i = 0; i < chunks.size(); i += 1) {
+                byte[] chunk = chunks.get(i);
+                assertTrue(chunk.length <= AVERAGE * 4);
+                if (i < chunks.size() - 1) {
+                    assertTrue(chunk.length >= AVERAGE / 4);
+                }
+                joined.writeBytes(chunk);
+            }
+            assertArrayEquals(data, joined.toByteArray());
+        }
+    }
+
+    /** The same bytes are always cut the same way. */
+    @Test
+    public void deterministicTest() throws IOException {
+        byte[] data = new byte[100000];
+        new Random(7).nextBytes(data);
+        List<byte[]> first = chunks(data), second = chunks(data);
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i += 1) {
+            assertArrayEquals(first.get(i), second.get(i));
+        }
+    }
+
+    /** After bytes are inserted in the middle of a stream, nine in ten
+     * of its chunks are found again, though every byte after the
+     * insertion has moved. */
+    @Test
+    public void editTest() throws IOException {
+        Random random = new Random(8);
+        byte[] data = new byte[200000];
+        random.nextBytes(data);
+        byte[] inserted = new byte[100];
+        random.nextBytes(inserted);
+        ByteArrayOutputStream edited = new ByteArrayOutputStream();
+        edited.write(data, 0, data.length / 2);
+        edited.writeBytes(inserted);
+        edited.write(data, data.length / 2, data.length - data.length / 2);
+        Set<String> before = new HashSet<>();
+        for (byte[] chunk : chunks(data)) {
+            before.add(Utils.sha1((Object) chunk));
+        }
+        List<byte[]> after = chunks(edited.toByteArray());
+        int found = 0;
+        for (byte[] chunk : after) {
+            if (before.contains(Utils.sha1((Object) chunk))) {
+                found += 1;
+            }
+        }
+        assertTrue(found + " of " + after.size(),
+                found * 10 >= after.size() * 9);
+    }
+
+    /** return the chunks of DATA.
+     * @param data given bytes. */
+    private static List<byte[]> chunks(byte[] data) throws IOException {
+        Chunker chunker = new Chunker(new ByteArrayInputStream(data),
+                AVERAGE);
+        List<byte[]> result = new ArrayList<>();
+        for (byte[] chunk = chunker.next(); chunk != null;
+             chunk = chunker.next()) {
+            result.add(chunk);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,182 @@
+package gitlet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** The binary format of commits and staged blobs, written
+ * without reflection. Each record starts with MAGIC, the format
+ * VERSION and the type of the record, followed by fields written by
+ * the record's own encode method. Strings are written as their
+ * length in UTF-8 bytes, or -1 for null, followed by the bytes.
+ * Records written by Java serialization before this format existed
+ * are still read, and the migrate command rewrites them.
+ * @author Haoqing Xuan
+ */
+class Codec {
+    /** the bytes that start every record. */
+    private static final byte[] MAGIC = {'G', 'L', 'T'};
+    /** the newest version of the format. */
+    static final int VERSION = 1;
+    /** the type of commit records. */
+    static final int COMMIT = 1;
+    /** the type of staged blob records, written before Stage
+     * existed. */
+    static final int BLOB = 2;
+    /** the type of repo records, written before Refs existed. */
+    static final int REPO = 3;
+
+    /** An object that can be written in this format. */
+    interface Encodable {
+        /** write the fields of this object to OUT.
+         * @param out given output. */
+        void encode(DataOutputStream out) throws IOException;
+    }
+
+    /** A reader of objects of type T in this format.
+     * @param <T> the type read. */
+    interface Decoder<T> {
+        /** return the object whose fields are read from IN, written
+         * by format VERSION.
+         * @param in given input.
+         * @param version given version. */
+        T decode(DataInputStream in, int version) throws IOException;
+    }
+
+    /** return OBJ as a record of TYPE.
+     * @param type given type.
+     * @param obj given object. */
+    static byte[] encode(int type, Encodable obj) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(bytes, type, obj);
+        return bytes.toByteArray();
+    }
+
+    /** write OBJ as a record of TYPE to FILE, compressed as set by
+     * core.compression.
+     * @param file given file.
+     * @param type given type.
+     * @param obj given object. */
+    static void write(File file, int type, Encodable obj) {
+        write(Utils.writeObjectContents(file), type, obj);
+    }
+
+    /** write OBJ as a record of TYPE to OUT, then close it.
+     * @param out given output.
+     * @param type given type.
+     * @param obj given object. */
+    private static void write(OutputStream out, int type, Encodable obj) {
+        try (DataOutputStream data = new DataOutputStream(
+                new BufferedOutputStream(out, Utils.BUFFER_SIZE))) {
+            data.write(MAGIC);
+            data.writeByte(VERSION);
+            data.writeByte(type);
+            obj.encode(data);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** return the record of TYPE in the object FILE.
+     * @param file given file.
+     * @param type given type.
+     * @param decoder the reader of the record.
+     * @param legacy the class of records written by serialization. */
+    static <T extends Serializable> T read(File file, int type,
+                                           Decoder<T> decoder,
+                                           Class<T> legacy) {
+        return read(Utils.readObjectContents(file), type, decoder, legacy);
+    }
+
+    /** return the record of TYPE read from IN, which is closed
+     * afterwards.
+     * @param in given input.
+     * @param type given type.
+     * @param decoder the reader of the record.
+     * @param legacy the class of records written by serialization. */
+    static <T extends Serializable> T read(InputStream in, int type,
+                                           Decoder<T> decoder,
+                                           Class<T> legacy) {
+        try (PushbackInputStream stream =
+                new PushbackInputStream(new BufferedInputStream(in),
+                        MAGIC.length)) {
+            byte[] magic = stream.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) {
+                stream.unread(magic);
+                return legacy.cast(new ObjectInputStream(stream).readObject());
+            }
+            DataInputStream data = new DataInputStream(stream);
+            int version = data.readUnsignedByte();
+            if (version > VERSION || data.readUnsignedByte() != type) {
+                throw Utils.error("Unreadable %s record of version %d.",
+                        legacy.getSimpleName(), version);
+            }
+            return decoder.decode(data, version);
+        } catch (IOException | ClassNotFoundException
+                 | ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** return whether IN starts with a record in this format, rather
+     * than one written by serialization. IN is closed afterwards.
+     * @param in given input. */
+    static boolean isEncoded(InputStream in) {
+        try (in) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** write S, which may be null, to OUT.
+     * @param out given output.
+     * @param s given string. */
+    static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /** return the string, which may be null, read from IN.
+     * @param in given input. */
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** write the 40-digit object ID to OUT as 20 bytes.
+     * @param out given output.
+     * @param id given id. */
+    static void writeID(DataOutputStream out, String id) throws IOException {
+        out.write(Utils.fromHex(id));
+    }
+
+    /** return the 40-digit object id read from IN.
+     * @param in given input. */
+    static String readID(DataInputStream in) throws IOException {
+        byte[] id = new byte[Utils.UID_LENGTH / 2];
+        in.readFully(id);
+        return Utils.toHex(id);
+    }
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/** Tests that records written by Codec, and those serialized before
+ * it existed, are read back as they were written.
+ *  @author Haoqing Xuan
+ */
+public class CodecTest {
+
+    /** A merge commit with files is decoded with the same header and
+     * files, and its header alone is decoded without them. */
+    @Test
+    public void commitTest() {
+        Commit commit = commit();
+        byte[] record = Codec.encode(Codec.COMMIT, commit);
+        Commit read = Codec.read(new ByteArrayInputStream(record),
+                Codec.COMMIT, Commit::decode, Commit.class);
+        assertCommitsEqual(commit, read);
+        Commit header = Codec.read(new ByteArrayInputStream(record),
+                Codec.COMMIT, Commit::decodeHeader, Commit.class);
+        assertEquals(commit.toString(), header.toString());
+    }
+
+    /** The initial commit, whose parent is null, is decoded too. */
+    @Test
+    public void initialCommitTest() {
+        Commit initial = new Commit("initial commit", null);
+        Commit read = Codec.read(new ByteArrayInputStream(
+                Codec.encode(Codec.COMMIT, initial)),
+                Codec.COMMIT, Commit::decode, Commit.class);
+        assertCommitsEqual(initial, read);
+        assertNull(read.getParentSHA());
+    }
+
+    /** A commit written by serialization, as before Codec, is read
+     * as the same commit. */
+    @Test
+    public void legacyCommitTest() throws IOException {
+        Commit commit = commit();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(commit);
+        }
+        assertFalse(Codec.isEncoded(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        Commit read = Codec.read(new ByteArrayInputStream(
+                bytes.toByteArray()), Codec.COMMIT, Commit::decode,
+                Commit.class);
+        assertCommitsEqual(commit, read);
+    }
+
+    /** A record of another type is refused. */
+    @Test
+    public void wrongTypeTest() {
+        byte[] record = Codec.encode(Codec.COMMIT, commit());
+        assertTrue(Codec.isEncoded(new ByteArrayInputStream(record)));
+        try {
+            Codec.read(new ByteArrayInputStream(record), Codec.REPO,
+                    Commit::decode, Commit.class);
+            fail("read a commit as a repo record");
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage(),
+                    excp.getMessage().startsWith("Unreadable"));
+        }
+    }
+
+    /** Strings, null and not ASCII among them, and ids are read back
+     * as written. */
+    @Test
+    public void fieldTest() throws IOException {
+        String id = Utils.sha1("gitlet");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Codec.writeString(out, "");
+        Codec.writeString(out, null);
+        Codec.writeString(out, "caf\u00e9 \u6587\u4ef6");
+        Codec.writeID(out, id);
+        out.flush();
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("", Codec.readString(in));
+        assertNull(Codec.readString(in));
+        assertEquals("caf\u00e9 \u6587\u4ef6", Codec.readString(in));
+        assertEquals(id, Codec.readID(in));
+        assertEquals(-1, in.read());
+    }
+
+    /** return a merge commit of two files, whose parent is the
+     * initial commit. */
+    private static Commit commit() {
+        Commit initial = new Commit("initial commit", null);
+        Commit commit = new Commit("Merged other into master.", initial);
+        commit.getBlobs().put("a.txt", Utils.sha1("alpha"));
+        commit.getBlobs().put("b c.txt", Utils.sha1("beta"));
+        commit.setFirstParentSHA(initial.getCommitSHA());
+        commit.setSecondParentSHA(Utils.sha1("other"));
+        return commit;
+    }
+
+    /** assert that READ has the header and files of EXPECTED.
+     * @param expected given commit.
+     * @param read given commit read back. */
+    private static void assertCommitsEqual(Commit expected, Commit read) {
+        assertEquals(expected.toString(), read.toString());
+        assertEquals(expected.getCommitSHA(), read.getCommitSHA());
+        assertEquals(expected.getCommitMessage(), read.getCommitMessage());
+        assertEquals(expected.getCommitDate(), read.getCommitDate());
+        assertEquals(expected.getParentSHA(), read.getParentSHA());
+        assertEquals(expected.getSecondParentSHA(),
+                read.getSecondParentSHA());
+        assertEquals(expected.isMerged(), read.isMerged());
+        assertEquals(expected.getBlobs(), read.getBlobs());
+    }
+}
@@ -1,7 +1,15 @@
 package gitlet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.Date;
 
 
@@ -9,16 +17,20 @@ import java.util.Date;
  *  @author Haoqing Xuan
  */
 
-public class Commit implements Serializable {
+public class Commit implements Serializable, Codec.Encodable {
+    /** pinned so that commits of the first version of gitlet can
+     * still be read. */
+    private static final long serialVersionUID = 5742707857807401270L;
     /** the commit message. */
     private String commitMessage;
     /** the commit's SHA code. */
     private String commitSHA;
     /** the commit's date.*/
     private String commitDate;
-    /** the hashmap that contains all filenames and
-     * information within files in this commit. */
-    private Map<String, Blobs> blobs;
+    /** the hashmap that maps all filenames in this commit
+     * to the contentID of their blobs, null until getBlobs
+     * reads it for a commit loaded from the store. */
+    private Map<String, String> blobs;
     /** the current branch. */
     private String currentBranch;
     /** the SHA code of the previous commit. */
@@ -29,6 +41,18 @@ public class Commit implements Serializable {
     private String secondParentSHA;
     /** returns the boolean indicating whether the commit is merged.*/
     private boolean merge = false;
+    /** the number of loaded commits kept in CACHE. */
+    private static final int CACHE_SIZE = 64;
+    /** the most recently loaded commits by id, so walks that come
+     * back to a commit do not read it again. */
+    private static final Map<String, Commit> CACHE =
+            new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Commit> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
 
 
 
@@ -48,9 +72,7 @@ public class Commit implements Serializable {
             currentTime = new Date();
             this.parentSHA = previousCommit.commitSHA;
             this.currentBranch = previousCommit.currentBranch;
-            for (String k : previousCommit.blobs.keySet()) {
-                this.blobs.put(k, previousCommit.blobs.get(k));
-            }
+            this.blobs.putAll(previousCommit.getBlobs());
         }
         commitDate = String.format("%ta %tb %td %tT %tY %tz",
                 currentTime, currentTime, currentTime,
@@ -58,15 +80,132 @@ public class Commit implements Serializable {
         commitSHA = Utils.sha1(commitMessage + currentTime);
     }
 
+    /** initiate an empty commit, to be filled in by decode. */
+    private Commit() {
+    }
+
+    /** return the stored commit with the given ID. Only its
+     * header is read; its files are read when first needed. The
+     * last CACHE_SIZE commits loaded are kept in memory.
+     * @param id given id. */
+    public static Commit load(String id) {
+        synchronized (CACHE) {
+            Commit commit = CACHE.get(id);
+            if (commit == null) {
+                commit = Codec.read(ObjectStore.open(ObjectStore.COMMIT, id),
+                        Codec.COMMIT, Commit::decodeHeader, Commit.class);
+                CACHE.put(id, commit);
+            }
+            return commit;
+        }
+    }
+
+    /** write this commit into the store. */
+    public void save() {
+        ObjectStore.write(ObjectStore.COMMIT, commitSHA,
+                Codec.encode(Codec.COMMIT, this));
+    }
 
+    /** write the header of this commit, as a length-prefixed
+     * block so fields can be added to it later, then its files
+     * in name order.
+     * @param out given output. */
+    @Override
+    public void encode(DataOutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        Codec.writeString(header, commitSHA);
+        Codec.writeString(header, commitMessage);
+        Codec.writeString(header, commitDate);
+        Codec.writeString(header, currentBranch);
+        Codec.writeString(header, parentSHA);
+        Codec.writeString(header, firstParentSHA);
+        Codec.writeString(header, secondParentSHA);
+        header.writeBoolean(merge);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.writeInt(getBlobs().size());
+        for (Map.Entry<String, String> file
+                : new TreeMap<>(getBlobs()).entrySet()) {
+            Codec.writeString(out, file.getKey());
+            Codec.writeID(out, file.getValue());
+        }
+    }
 
+    /** return the commit, files included, read from IN.
+     * @param in given input.
+     * @param version the version of the format. */
+    static Commit decode(DataInputStream in, int version)
+            throws IOException {
+        Commit commit = decodeHeader(in, version);
+        int count = in.readInt();
+        commit.blobs = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i += 1) {
+            commit.blobs.put(Codec.readString(in), Codec.readID(in));
+        }
+        return commit;
+    }
+
+    /** return the commit read from IN without its files, leaving
+     * the rest of IN unread.
+     * @param in given input.
+     * @param version the version of the format. */
+    static Commit decodeHeader(DataInputStream in, int version)
+            throws IOException {
+        Commit commit = new Commit();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        DataInputStream header =
+                new DataInputStream(new ByteArrayInputStream(bytes));
+        commit.commitSHA = Codec.readString(header);
+        commit.commitMessage = Codec.readString(header);
+        commit.commitDate = Codec.readString(header);
+        commit.currentBranch = Codec.readString(header);
+        commit.parentSHA = Codec.readString(header);
+        commit.firstParentSHA = Codec.readString(header);
+        commit.secondParentSHA = Codec.readString(header);
+        commit.merge = header.readBoolean();
+        return commit;
+    }
+
+
+
+
+    /** read this commit by serialization, replacing the Blobs that
+     * the first version of gitlet kept in the file table by their
+     * contentIDs. Reading those Blobs stored their contents.
+     * @param in given input. */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (blobs != null) {
+            Map<String, String> ids = new HashMap<>();
+            for (Map.Entry<String, ?> file
+                    : ((Map<String, ?>) blobs).entrySet()) {
+                Object blob = file.getValue();
+                ids.put(file.getKey(), blob instanceof Blobs
+                        ? ((Blobs) blob).getContentID() : (String) blob);
+            }
+            blobs = ids;
+        }
+    }
 
     /** return commitMessage. */
     public String getCommitMessage() {
         return commitMessage;
     }
-    /** return blobs. */
-    public Map<String, Blobs> getBlobs() {
+    /** return commitDate. */
+    public String getCommitDate() {
+        return commitDate;
+    }
+    /** return blobs, filenames mapped to contentIDs, reading
+     * them from the store the first time. */
+    public Map<String, String> getBlobs() {
+        if (blobs == null) {
+            blobs = Codec.read(ObjectStore.open(ObjectStore.COMMIT,
+                    commitSHA), Codec.COMMIT, Commit::decode,
+                    Commit.class).blobs;
+        }
         return blobs;
     }
     /** return if the commit is merged. */
@@ -90,10 +229,11 @@ public class Commit implements Serializable {
     public void setFirstParentSHA(String firstParentID) {
         this.firstParentSHA = firstParentID;
     }
-    /** set secondParent.
+    /** set secondParent, which makes this a merge commit.
      * @param secondParentID  second parent id. */
     public void setSecondParentSHA(String secondParentID) {
         this.secondParentSHA = secondParentID;
+        this.merge = secondParentID != null;
     }
     /** return secondParent.
      * @return secondParentSHA.*/
@@ -106,6 +246,8 @@ public class Commit implements Serializable {
     public String toString() {
         return "===\n"
                 + "commit " + commitSHA + "\n"
+                + (merge ? "Merge: " + parentSHA.substring(0, 7) + " "
+                        + secondParentSHA.substring(0, 7) + "\n" : "")
                 + "Date: " + commitDate + "\n"
                 + commitMessage;
     }
@@ -0,0 +1,534 @@
+package gitlet;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** The commit graph of a repository, so history can be walked
+ * without reading any commit object. GRAPH starts with MAGIC, a
+ * version and the number of commits, followed by one RECORD_SIZE
+ * record per commit, parents before children: the 20-byte id, the
+ * positions of the first and second parent (-1 for none), the
+ * generation number and the offset of the header of the commit in
+ * HEADERS. The generation of a root commit is 1 and that of any
+ * other commit is one more than the largest generation of its
+ * parents, so a commit can only be an ancestor of commits with a
+ * larger generation. HEADERS holds the date and the message of
+ * each commit as length-prefixed UTF-8 strings.
+ *
+ * Both files are memory-mapped for reading. A new commit appends
+ * its header and its record and then updates the count, so the
+ * graph is never rewritten. If GRAPH is missing, it is rebuilt from
+ * the commit objects.
+ *
+ * LOOKUP finds the position of a commit by id. It starts with
+ * LOOKUP_MAGIC, the version and the number of commits it covers,
+ * the oldest ones, followed by a fanout of FANOUT counts, the number
+ * of covered ids whose first byte is at most each value, and the
+ * positions of the covered commits sorted by id. An id is binary
+ * searched among those of its first byte; commits newer than the
+ * table are checked one by one, and the table is rewritten once
+ * LOOKUP_INTERVAL commits are not covered by it.
+ * @author Haoqing Xuan
+ */
+class CommitGraph {
+    /** the file of graph records. */
+    static final File GRAPH = new File(".gitlet/commit-graph");
+    /** the file of commit headers. */
+    static final File HEADERS = new File(".gitlet/commit-headers");
+    /** the lookup table of commit positions sorted by id. */
+    static final File LOOKUP = new File(".gitlet/commit-graph-lookup");
+    /** the bytes that start GRAPH. */
+    private static final byte[] MAGIC = {'G', 'C', 'G', 'R'};
+    /** the bytes that start LOOKUP. */
+    private static final byte[] LOOKUP_MAGIC = {'G', 'C', 'L', 'K'};
+    /** the number of fanout counts in LOOKUP, one per first byte. */
+    private static final int FANOUT = 256;
+    /** the number of commits left out of LOOKUP before it is
+     * rewritten. */
+    private static final int LOOKUP_INTERVAL = 256;
+    /** the version of the graph format. */
+    private static final int VERSION = 1;
+    /** the size of the header of GRAPH. */
+    private static final int HEADER_SIZE = 12;
+    /** the length of a commit id in bytes. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+    /** the size of each record of GRAPH. */
+    private static final int RECORD_SIZE = ID_SIZE + 4 + 4 + 4 + 8;
+    /** the position of a missing parent. */
+    static final int NONE = -1;
+    /** the graph of the repository, null until first used. */
+    private static CommitGraph graph;
+
+    /** the mapped records. */
+    private final MappedByteBuffer records;
+    /** the mapped headers. */
+    private final MappedByteBuffer headers;
+    /** the number of commits. */
+    private final int size;
+    /** the mapped lookup table, or null if there is none. */
+    private final MappedByteBuffer lookup;
+    /** the number of commits covered by the lookup table. */
+    private final int sorted;
+
+    /** map the graph files, and the lookup table if it matches. */
+    private CommitGraph() throws IOException {
+        try (FileChannel channel = FileChannel.open(GRAPH.toPath())) {
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        try (FileChannel channel = FileChannel.open(HEADERS.toPath())) {
+            headers = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        byte[] magic = new byte[MAGIC.length];
+        records.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || records.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt commit graph.");
+        }
+        size = records.getInt(8);
+        MappedByteBuffer table = null;
+        if (LOOKUP.isFile()) {
+            try (FileChannel channel = FileChannel.open(LOOKUP.toPath())) {
+                table = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            }
+            table.get(0, magic);
+            if (!Arrays.equals(magic, LOOKUP_MAGIC)
+                    || table.getInt(4) != VERSION || table.getInt(8) > size
+                    || table.capacity() != HEADER_SIZE
+                    + 4 * (FANOUT + table.getInt(8))) {
+                table = null;
+            }
+        }
+        lookup = table;
+        sorted = table == null ? 0 : table.getInt(8);
+    }
+
+    /** return the commit graph of the repository, building it from
+     * the commit objects if it does not exist yet. */
+    static CommitGraph get() {
+        if (graph == null) {
+            if (!GRAPH.exists()) {
+                rebuild();
+            }
+            try {
+                graph = new CommitGraph();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return graph;
+    }
+
+    /** forget the graph, so that the next use maps the files again,
+     * after another process may have changed them. */
+    static void reload() {
+        graph = null;
+    }
+
+    /** return the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /** return the position of record I in GRAPH.
+     * @param i given commit. */
+    private static int record(int i) {
+        return HEADER_SIZE + i * RECORD_SIZE;
+    }
+
+    /** return the id of commit I.
+     * @param i given commit. */
+    String id(int i) {
+        byte[] id = new byte[ID_SIZE];
+        records.get(record(i), id);
+        return Utils.toHex(id);
+    }
+
+    /** return the position of the first parent of commit I, or NONE.
+     * @param i given commit. */
+    int parent(int i) {
+        return records.getInt(record(i) + ID_SIZE);
+    }
+
+    /** return the position of the second parent of commit I, or NONE.
+     * @param i given commit. */
+    int secondParent(int i) {
+        return records.getInt(record(i) + ID_SIZE + 4);
+    }
+
+    /** return the generation number of commit I.
+     * @param i given commit. */
+    int generation(int i) {
+        return records.getInt(record(i) + ID_SIZE + 8);
+    }
+
+    /** return the date of commit I.
+     * @param i given commit. */
+    String date(int i) {
+        return string((int) records.getLong(record(i) + ID_SIZE + 12));
+    }
+
+    /** return the message of commit I.
+     * @param i given commit. */
+    String message(int i) {
+        int at = (int) records.getLong(record(i) + ID_SIZE + 12);
+        return string(at + 4 + headers.getInt(at));
+    }
+
+    /** return commit I as printed by log.
+     * @param i given commit. */
+    String toString(int i) {
+        return "===\n"
+                + "commit " + id(i) + "\n"
+                + (secondParent(i) == NONE ? "" : "Merge: "
+                        + id(parent(i)).substring(0, 7) + " "
+                        + id(secondParent(i)).substring(0, 7) + "\n")
+                + "Date: " + date(i) + "\n"
+                + message(i);
+    }
+
+    /** return the string at offset AT of the headers.
+     * @param at given offset. */
+    private String string(int at) {
+        byte[] bytes = new byte[headers.getInt(at)];
+        headers.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** return the position of the commit ID, or NONE if it is not
+     * in the graph. Commits newer than the lookup table are searched
+     * first, newest first, then the table.
+     * @param id given id. */
+    int find(String id) {
+        byte[] bytes = Utils.fromHex(id);
+        if (bytes == null || bytes.length != ID_SIZE) {
+            return NONE;
+        }
+        byte[] candidate = new byte[ID_SIZE];
+        for (int i = size - 1; i >= sorted; i -= 1) {
+            records.get(record(i), candidate);
+            if (Arrays.equals(candidate, bytes)) {
+                return i;
+            }
+        }
+        if (sorted == 0) {
+            return NONE;
+        }
+        int first = bytes[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1), hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int i = lookup.getInt(HEADER_SIZE + 4 * (FANOUT + mid));
+            records.get(record(i), candidate);
+            int c = Arrays.compareUnsigned(candidate, bytes);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /** return the number of ids in the lookup table whose first byte
+     * is at most FIRST.
+     * @param first given first byte. */
+    private int fanout(int first) {
+        return lookup.getInt(HEADER_SIZE + 4 * first);
+    }
+
+    /** return the position of the commit ID, rebuilding the graph
+     * once if the commit is stored but missing from it.
+     * @param id given id. */
+    static int position(String id) {
+        int i = get().find(id);
+        if (i == NONE && ObjectStore.contains(ObjectStore.COMMIT, id)) {
+            rebuild();
+            i = get().find(id);
+        }
+        if (i == NONE) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        return i;
+    }
+
+    /** return whether commit A is an ancestor of, or the same
+     * commit as, commit B. Commits with a generation below that of
+     * A are never visited.
+     * @param a given commit.
+     * @param b given commit. */
+    boolean isAncestor(int a, int b) {
+        int floor = generation(a);
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        Set<Integer> seen = new HashSet<>();
+        pending.add(b);
+        while (!pending.isEmpty()) {
+            int i = pending.remove();
+            if (i == a) {
+                return true;
+            }
+            if (!seen.add(i) || generation(i) <= floor) {
+                continue;
+            }
+            for (int p : new int[] {parent(i), secondParent(i)}) {
+                if (p != NONE) {
+                    pending.add(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** return the best common ancestor of commits A and B, or NONE if
+     * they have none. Commits are visited from the largest generation
+     * down, so the first commit reached from both is a common
+     * ancestor that is not an ancestor of another one.
+     * @param a given commit.
+     * @param b given commit. */
+    int mergeBase(int a, int b) {
+        final int fromA = 1, fromB = 2;
+        Map<Integer, Integer> reached = new HashMap<>();
+        PriorityQueue<Integer> pending = new PriorityQueue<>((x, y) ->
+                Integer.compare(generation(y), generation(x)));
+        reached.put(a, fromA);
+        reached.merge(b, fromB, (x, y) -> x | y);
+        pending.add(a);
+        if (a != b) {
+            pending.add(b);
+        }
+        while (!pending.isEmpty()) {
+            int i = pending.remove();
+            int flags = reached.get(i);
+            if (flags == (fromA | fromB)) {
+                return i;
+            }
+            for (int p : new int[] {parent(i), secondParent(i)}) {
+                if (p != NONE) {
+                    Integer old = reached.get(p);
+                    if (old == null) {
+                        reached.put(p, flags);
+                        pending.add(p);
+                    } else {
+                        reached.put(p, old | flags);
+                    }
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /** add COMMIT, whose parents must already be in the graph, to
+     * the end of the graph.
+     * @param commit given commit. */
+    static void add(Commit commit) {
+        CommitGraph current = get();
+        if (current.find(commit.getCommitSHA()) != NONE) {
+            return;
+        }
+        int[] parents = {NONE, NONE};
+        String[] parentIDs = parentIDs(commit);
+        int generation = 1;
+        for (int k = 0; k < parentIDs.length; k += 1) {
+            parents[k] = position(parentIDs[k]);
+            generation = Math.max(generation,
+                    get().generation(parents[k]) + 1);
+        }
+        int count = get().size;
+        try (FileChannel out = FileChannel.open(HEADERS.toPath(),
+                StandardOpenOption.WRITE)) {
+            long offset = out.size();
+            out.write(ByteBuffer.wrap(header(commit)), offset);
+            try (FileChannel records = FileChannel.open(GRAPH.toPath(),
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer entry = record(commit.getCommitSHA(), parents,
+                        generation, offset);
+                records.write(entry, record(count));
+                records.write(ByteBuffer.allocate(4).putInt(0, count + 1),
+                        8);
+            }
+            graph = null;
+            CommitGraph updated = get();
+            if (updated.size - updated.sorted >= LOOKUP_INTERVAL) {
+                updated.writeLookup();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        graph = null;
+    }
+
+    /** write the lookup table of all commits of this graph in place
+     * of the existing one. */
+    private void writeLookup() throws IOException {
+        byte[][] ids = new byte[size][ID_SIZE];
+        Integer[] order = new Integer[size];
+        int[] counts = new int[FANOUT];
+        for (int i = 0; i < size; i += 1) {
+            records.get(record(i), ids[i]);
+            order[i] = i;
+            counts[ids[i][0] & 0xff] += 1;
+        }
+        Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(ids[x], ids[y]));
+        ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE
+                + 4 * (FANOUT + size));
+        table.put(LOOKUP_MAGIC).putInt(VERSION).putInt(size);
+        for (int k = 0, total = 0; k < FANOUT; k += 1) {
+            total += counts[k];
+            table.putInt(total);
+        }
+        for (int i : order) {
+            table.putInt(i);
+        }
+        File tmp = Files.createTempFile(LOOKUP.getParentFile().toPath(),
+                "tmp_", "").toFile();
+        Files.write(tmp.toPath(), table.array());
+        Files.move(tmp.toPath(), LOOKUP.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** return the ids of the parents of COMMIT.
+     * @param commit given commit. */
+    private static String[] parentIDs(Commit commit) {
+        if (commit.getParentSHA() == null) {
+            return new String[0];
+        } else if (commit.isMerged()) {
+            return new String[] {commit.getParentSHA(),
+                commit.getSecondParentSHA()};
+        }
+        return new String[] {commit.getParentSHA()};
+    }
+
+    /** return the header of COMMIT as stored in HEADERS.
+     * @param commit given commit. */
+    private static byte[] header(Commit commit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String s : new String[] {commit.getCommitDate(),
+            commit.getCommitMessage()}) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** return the record of the commit ID with PARENTS, GENERATION
+     * and its header at OFFSET.
+     * @param id given id.
+     * @param parents given parent positions.
+     * @param generation given generation.
+     * @param offset given offset. */
+    private static ByteBuffer record(String id, int[] parents,
+                                     int generation, long offset) {
+        ByteBuffer entry = ByteBuffer.allocate(RECORD_SIZE);
+        entry.put(Utils.fromHex(id)).putInt(parents[0]).putInt(parents[1])
+                .putInt(generation).putLong(offset);
+        return entry.flip();
+    }
+
+    /** write the graph of all stored commits, parents first, and
+     * its lookup table in place of the existing ones, which also
+     * invalidates the MessageIndex built on it. */
+    static void rebuild() {
+        MessageIndex.invalidate();
+        LOOKUP.delete();
+        try {
+            write();
+            graph = null;
+            get().writeLookup();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        graph = null;
+    }
+
+    /** write the graph of all stored commits, parents first. */
+    private static void write() throws IOException {
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : ObjectStore.list(ObjectStore.COMMIT)) {
+            commits.put(id, Commit.load(id));
+        }
+        List<Commit> order = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        for (Commit start : commits.values()) {
+            ArrayDeque<Commit> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                Commit commit = stack.peek();
+                if (done.contains(commit.getCommitSHA())) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parent : parentIDs(commit)) {
+                    if (!done.contains(parent) && commits.containsKey(parent)) {
+                        stack.push(commits.get(parent));
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    done.add(commit.getCommitSHA());
+                    order.add(commit);
+                }
+            }
+        }
+        Map<String, Integer> positions = new HashMap<>();
+        int[] generations = new int[order.size()];
+        ByteArrayOutputStream graphBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        graphBytes.write(MAGIC);
+        graphBytes.write(ByteBuffer.allocate(8).putInt(VERSION)
+                .putInt(order.size()).array());
+        for (int i = 0; i < order.size(); i += 1) {
+            Commit commit = order.get(i);
+            int[] parents = {NONE, NONE};
+            String[] parentIDs = parentIDs(commit);
+            generations[i] = 1;
+            for (int k = 0; k < parentIDs.length; k += 1) {
+                Integer p = positions.get(parentIDs[k]);
+                if (p != null) {
+                    parents[k] = p;
+                    generations[i] = Math.max(generations[i],
+                            generations[p] + 1);
+                }
+            }
+            ByteBuffer entry = record(commit.getCommitSHA(), parents,
+                    generations[i], headerBytes.size());
+            graphBytes.write(entry.array());
+            headerBytes.write(header(commit));
+            positions.put(commit.getCommitSHA(), i);
+        }
+        File tmpHeaders = Files.createTempFile(GRAPH.getParentFile()
+                .toPath(), "tmp_", "").toFile();
+        File tmpGraph = Files.createTempFile(GRAPH.getParentFile()
+                .toPath(), "tmp_", "").toFile();
+        Files.write(tmpHeaders.toPath(), headerBytes.toByteArray());
+        Files.write(tmpGraph.toPath(), graphBytes.toByteArray());
+        GRAPH.delete();
+        Files.move(tmpHeaders.toPath(), HEADERS.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpGraph.toPath(), GRAPH.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,99 @@
+package gitlet;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/** Repository settings, read once from .gitlet/config. The file
+ * holds one "key=value" setting per line; missing keys fall back
+ * to the defaults given by the callers.
+ * @author Haoqing Xuan
+ */
+class Config {
+    /** the config file of the repository. */
+    static final File CONFIG = new File(".gitlet/config");
+    /** the settings read from CONFIG, null until first used. */
+    private static Properties settings;
+
+    /** return the setting KEY, or DEFAULTVALUE if it is not set.
+     * @param key given key.
+     * @param defaultValue given default. */
+    static String get(String key, String defaultValue) {
+        if (settings == null) {
+            settings = new Properties();
+            if (CONFIG.isFile()) {
+                try (InputStream in = Files.newInputStream(CONFIG.toPath())) {
+                    settings.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        String value = settings.getProperty(key);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    /** return the integer setting KEY, or DEFAULTVALUE if it
+     * is not set.
+     * @param key given key.
+     * @param defaultValue given default. */
+    static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad value for %s in .gitlet/config: %s",
+                    key, value);
+        }
+    }
+
+    /** return the boolean setting KEY, or DEFAULTVALUE if it
+     * is not set.
+     * @param key given key.
+     * @param defaultValue given default. */
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /** set KEY to VALUE for the rest of this run, without writing
+     * it to the config file.
+     * @param key given key.
+     * @param value given value. */
+    static void set(String key, String value) {
+        get(key, null);
+        settings.setProperty(key, value);
+    }
+
+    /** forget the settings, so that the next use reads CONFIG
+     * again, after another process may have changed it. */
+    static void reload() {
+        settings = null;
+    }
+
+    /** return the number of threads parallel work runs on, from
+     * core.threads, by default the number of processors. */
+    static int threads() {
+        int threads = getInt("core.threads",
+                Runtime.getRuntime().availableProcessors());
+        if (threads < 1) {
+            throw Utils.error("core.threads must be at least 1");
+        }
+        return threads;
+    }
+
+    /** return the zlib level objects are written with, from
+     * core.compression. Level 0 writes objects uncompressed,
+     * after a header of their own. */
+    static int compressionLevel() {
+        int level = getInt("core.compression", -1);
+        if (level < -1 || level > 9) {
+            throw Utils.error("core.compression must be between -1 and 9");
+        }
+        return level;
+    }
+}
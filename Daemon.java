@@ -0,0 +1,247 @@
+package gitlet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/** A long-lived process that runs the commands of one repository, so
+ * that they do not each pay for starting a JVM and reading the commit
+ * graph, packs and commits again. The daemon listens on the Unix-domain
+ * socket SOCKET, and Main forwards its arguments there whenever SOCKET
+ * exists, running the command itself if no daemon answers.
+ *
+ * A client sends the number of arguments and each argument as a
+ * Codec string. The daemon runs them as Main would and answers with
+ * frames of a tag byte, OUT or ERR, a length and that many bytes of
+ * standard output or error, ended by an END byte. Commands run one at
+ * a time. A command that fails unexpectedly answers with the message
+ * of its exception, whose stack trace goes to the daemon's own
+ * standard error.
+ *
+ * Commits and rebuilt blobs are cached by SHA, so they stay valid
+ * whatever other processes do. The branch, config, commit graph and
+ * packs are read again before a command if another process changed
+ * them since the last one. The daemon stops once no command came for
+ * its idle timeout, or within a POLL of its socket being removed,
+ * as when the repository is gone.
+ * @author Haoqing Xuan
+ */
+class Daemon {
+    /** the socket the daemon listens on. */
+    static final File SOCKET = new File(".gitlet/daemon.sock");
+    /** the default idle timeout, in seconds. */
+    static final int DEFAULT_IDLE_TIMEOUT = 600;
+    /** the tag of a frame of standard output. */
+    private static final int OUT = 1;
+    /** the tag of a frame of standard error. */
+    private static final int ERR = 2;
+    /** the tag that ends an answer. */
+    private static final int END = 0;
+    /** the longest the daemon waits for a command, in milliseconds,
+     * before checking that SOCKET still exists. */
+    private static final long POLL = 1000;
+    /** the files whose changes by another process make the daemon
+     * drop what it read of them. */
+    private static final File[] WATCHED = {Refs.HEAD, Refs.HEADS_DIR,
+        Config.CONFIG, CommitGraph.GRAPH, Pack.PACK_DIR};
+
+    /** run the command ARGS on the daemon of this repository, if one
+     * is running, and return whether it was.
+     * @param args given input. */
+    static boolean forward(String... args) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new
+                    BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                Codec.writeString(out, arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new
+                    BufferedInputStream(Channels.newInputStream(channel)));
+            for (int tag = in.readUnsignedByte(); tag != END;
+                 tag = in.readUnsignedByte()) {
+                byte[] bytes = in.readNBytes(in.readInt());
+                PrintStream stream = tag == ERR ? System.err : System.out;
+                stream.write(bytes);
+                stream.flush();
+            }
+            return true;
+        } catch (IOException excp) {
+            throw Utils.error("Lost the connection to the daemon.");
+        }
+    }
+
+    /** return a connection to the daemon of this repository, or
+     * null if none is running. */
+    private static SocketChannel connect() {
+        if (!SOCKET.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(
+                    UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** run commands sent to SOCKET until none came for IDLESECONDS
+     * seconds.
+     * @param idleSeconds given idle timeout. */
+    static void serve(int idleSeconds) {
+        SocketChannel running = connect();
+        if (running != null) {
+            try {
+                running.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            throw Utils.error("A daemon is already running.");
+        }
+        long idle = idleSeconds * 1000L;
+        try (ServerSocketChannel server =
+                     ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             Selector selector = Selector.open()) {
+            Files.deleteIfExists(SOCKET.toPath());
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            File socket = SOCKET.getAbsoluteFile();
+            Runtime.getRuntime().addShutdownHook(new Thread(socket::delete));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            String stamp = stamp();
+            long deadline = System.currentTimeMillis() + idle;
+            while (SOCKET.exists()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                } else if (selector.select(Math.min(wait, POLL)) == 0) {
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                try (SocketChannel client = server.accept()) {
+                    if (client == null) {
+                        continue;
+                    }
+                    if (!stamp.equals(stamp())) {
+                        reload();
+                    }
+                    handle(client);
+                } catch (IOException excp) {
+                    reload();
+                }
+                stamp = stamp();
+                deadline = System.currentTimeMillis() + idle;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** read a command from CLIENT, run it with standard output and
+     * error sent back to CLIENT, and end the answer.
+     * @param client given client. */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = Codec.readString(in);
+        }
+        DataOutputStream frames = new DataOutputStream(
+                Channels.newOutputStream(client));
+        PrintStream out = System.out, err = System.err;
+        PrintStream clientOut = stream(frames, OUT);
+        PrintStream clientErr = stream(frames, ERR);
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        try {
+            Main.execute(args);
+        } catch (IOException | RuntimeException excp) {
+            System.out.println(excp.getMessage() != null
+                    ? excp.getMessage() : excp.toString());
+            excp.printStackTrace(err);
+            reload();
+        } finally {
+            clientOut.flush();
+            clientErr.flush();
+            System.setOut(out);
+            System.setErr(err);
+        }
+        synchronized (frames) {
+            frames.writeByte(END);
+            frames.flush();
+        }
+    }
+
+    /** return a stream that writes its bytes to FRAMES as frames
+     * tagged TAG.
+     * @param frames given output.
+     * @param tag given tag. */
+    private static PrintStream stream(DataOutputStream frames, int tag) {
+        OutputStream framed = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                    throws IOException {
+                synchronized (frames) {
+                    frames.writeByte(tag);
+                    frames.writeInt(len);
+                    frames.write(b, off, len);
+                }
+            }
+        };
+        return new PrintStream(new BufferedOutputStream(framed,
+                Utils.BUFFER_SIZE), false, StandardCharsets.UTF_8);
+    }
+
+    /** return the modification times and sizes of the WATCHED
+     * files, which change when another process changes them. */
+    private static String stamp() {
+        StringBuilder result = new StringBuilder();
+        for (File file : WATCHED) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(
+                        file.toPath(), BasicFileAttributes.class);
+                result.append(attributes.lastModifiedTime()).append(' ')
+                        .append(attributes.size()).append(' ');
+            } catch (IOException excp) {
+                result.append("- ");
+            }
+        }
+        return result.toString();
+    }
+
+    /** forget the branch, config, commit graph and packs read so
+     * far, so that the next command reads them again. */
+    private static void reload() {
+        Refs.reload();
+        Config.reload();
+        CommitGraph.reload();
+        Pack.reload();
+    }
+}
@@ -0,0 +1,177 @@
+package gitlet;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of a file. A delta starts
+ * with the lengths of the base and of the result, as varints,
+ * followed by instructions that build the result: a byte 1-127
+ * inserts that many literal bytes that follow it, and the byte
+ * COPY, followed by an offset and a length as varints, copies that
+ * range of the base.
+ * @author Haoqing Xuan
+ */
+class Delta {
+    /** the instruction that copies a range of the base. */
+    private static final int COPY = 0x80;
+    /** the longest insert instruction. */
+    private static final int MAX_INSERT = 0x7f;
+    /** the length of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** the multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** PRIME to the power BLOCK - 1. */
+    private static final int TOP;
+
+    static {
+        int top = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            top *= PRIME;
+        }
+        TOP = top;
+    }
+
+    /** return a delta that builds TARGET from BASE.
+     * @param base given base.
+     * @param target given target. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int pending = 0, i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer at = blocks.get(h);
+            if (at != null && matches(base, at, target, i)) {
+                int from = at, to = i, length = BLOCK;
+                while (to > pending && from > 0
+                        && base[from - 1] == target[to - 1]) {
+                    from -= 1;
+                    to -= 1;
+                    length += 1;
+                }
+                while (to + length < target.length
+                        && from + length < base.length
+                        && base[from + length] == target[to + length]) {
+                    length += 1;
+                }
+                insert(out, target, pending, to);
+                out.write(COPY);
+                writeVarint(out, from);
+                writeVarint(out, length);
+                i = to + length;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * TOP) * PRIME
+                            + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** return the result of applying DELTA to BASE.
+     * @param base given base.
+     * @param delta given delta. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("Delta does not apply to its base.");
+        }
+        byte[] result = new byte[(int) readVarint(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if (op == COPY) {
+                int from = (int) readVarint(delta, pos);
+                int length = (int) readVarint(delta, pos);
+                System.arraycopy(base, from, result, n, length);
+                n += length;
+            } else {
+                System.arraycopy(delta, pos[0], result, n, op);
+                pos[0] += op;
+                n += op;
+            }
+        }
+        if (n != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** return the hash of the BLOCK bytes of DATA at START.
+     * @param data given data.
+     * @param start given start. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * PRIME + (data[k] & 0xff);
+        }
+        return h;
+    }
+
+    /** return whether the BLOCK bytes of BASE at FROM equal those of
+     * TARGET at TO.
+     * @param base given base.
+     * @param from given offset in base.
+     * @param target given target.
+     * @param to given offset in target. */
+    private static boolean matches(byte[] base, int from,
+                                   byte[] target, int to) {
+        for (int k = 0; k < BLOCK; k += 1) {
+            if (base[from + k] != target[to + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** write instructions inserting DATA[START, END) to OUT.
+     * @param out given output.
+     * @param data given data.
+     * @param start given start.
+     * @param end given end. */
+    private static void insert(ByteArrayOutputStream out, byte[] data,
+                               int start, int end) {
+        while (start < end) {
+            int length = Math.min(MAX_INSERT, end - start);
+            out.write(length);
+            out.write(data, start, length);
+            start += length;
+        }
+    }
+
+    /** write VALUE to OUT as a varint.
+     * @param out given output.
+     * @param value given value. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** return the varint of DATA at POS[0], advancing POS[0] past it.
+     * @param data given data.
+     * @param pos given position. */
+    static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = data[pos[0]++] & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/** Tests that deltas made by Delta rebuild their target from their
+ * base, on random files and on random edits of them.
+ *  @author Haoqing Xuan
+ */
+public class DeltaTest {
+
+    /** the number of random pairs of files tried. */
+    private static final int ROUNDS = 300;
+
+    /** A delta between unrelated files, either one possibly empty or
+     * shorter than a block, rebuilds the target. */
+    @Test
+    public void randomTest() {
+        Random random = new Random(4);
+        for (int i = 0; i < ROUNDS; i += 1) {
+            byte[] base = bytes(random, random.nextInt(200));
+            byte[] target = bytes(random, random.nextInt(200));
+            assertArrayEquals(target,
+                    Delta.apply(base, Delta.create(base, target)));
+        }
+    }
+
+    /** A delta of a file with a few bytes inserted, removed and
+     * replaced rebuilds the edited file, and is much smaller than
+     * it. */
+    @Test
+    public void editTest() {
+        Random random = new Random(5);
+        for (int i = 0; i < ROUNDS; i += 1) {
+            byte[] base = bytes(random, 4096 + random.nextInt(4096));
+            byte[] target = edit(random, base);
+            byte[] delta = Delta.create(base, target);
+            assertArrayEquals(target, Delta.apply(base, delta));
+            assertTrue(delta.length + " bytes",
+                    delta.length < target.length / 4);
+        }
+    }
+
+    /** Files made of few byte values, whose blocks repeat, and
+     * longer than the longest insert instruction, rebuild too. */
+    @Test
+    public void repetitiveTest() {
+        Random random = new Random(6);
+        for (int i = 0; i < ROUNDS; i += 1) {
+            byte[] base = new byte[random.nextInt(1000)];
+            for (int k = 0; k < base.length; k += 1) {
+                base[k] = (byte) random.nextInt(2);
+            }
+            byte[] target = edit(random, base);
+            assertArrayEquals(target,
+                    Delta.apply(base, Delta.create(base, target)));
+        }
+    }
+
+    /** A delta does not apply to a base of another length. */
+    @Test
+    public void wrongBaseTest() {
+        byte[] delta = Delta.create(new byte[10], new byte[10]);
+        try {
+            Delta.apply(new byte[11], delta);
+            fail("applied to the wrong base");
+        } catch (GitletException excp) {
+            assertEquals("Delta does not apply to its base.",
+                    excp.getMessage());
+        }
+    }
+
+    /** return LENGTH random bytes.
+     * @param random given source of randomness.
+     * @param length given length. */
+    private static byte[] bytes(Random random, int length) {
+        byte[] result = new byte[length];
+        random.nextBytes(result);
+        return result;
+    }
+
+    /** return BASE with up to 8 runs of up to 16 bytes inserted,
+     * removed or replaced at random places.
+     * @param random given source of randomness.
+     * @param base given bytes. */
+    private static byte[] edit(Random random, byte[] base) {
+        byte[] result = base;
+        for (int edits = random.nextInt(8); edits >= 0; edits -= 1) {
+            int at = random.nextInt(result.length + 1);
+            int length = Math.min(random.nextInt(16), result.length - at);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(result, 0, at);
+            switch (random.nextInt(3)) {
+            case 0:
+                out.writeBytes(bytes(random, length));
+                out.write(result, at, result.length - at);
+                break;
+            case 1:
+                out.write(result, at + length, result.length - at - length);
+                break;
+            default:
+                out.writeBytes(bytes(random, length));
+                out.write(result, at + length, result.length - at - length);
+                break;
+            }
+            result = out.toByteArray();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,481 @@
+package gitlet;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Line diffs of file contents. The lines of both files are first
+ * numbered, equal lines getting equal numbers, and their common
+ * prefix and suffix dropped. The rest is compared by Myers' O(ND)
+ * algorithm in linear space, splitting each range at the middle of
+ * a shortest edit script, or, with the histogram option, split
+ * around the longest run of common lines containing the line that
+ * occurs least often, falling back to Myers' algorithm for ranges
+ * where every common line occurs more than MAX_CHAIN times. Ranges
+ * are kept on a stack rather than recursed into, so deep splits do
+ * not overflow the call stack.
+ *
+ * Differences are printed as unified diffs, one hunk at a time, and
+ * three-way merges only mark the regions both sides changed
+ * differently as conflicts.
+ * @author Haoqing Xuan
+ */
+class Diff {
+    /** the number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+    /** the most occurrences of a line histogram diff splits at. */
+    private static final int MAX_CHAIN = 64;
+    /** the number of leading bytes checked for a NUL byte, which
+     * marks binary contents. */
+    private static final int BINARY_CHECK = 8000;
+
+    /** A change that replaces lines [beginA, endA) of the old file by
+     * lines [beginB, endB) of the new one. */
+    static final class Edit {
+        /** the first line of the old file replaced. */
+        private final int beginA;
+        /** the line of the old file after those replaced. */
+        private final int endA;
+        /** the first line of the new file inserted. */
+        private final int beginB;
+        /** the line of the new file after those inserted. */
+        private final int endB;
+
+        /** an edit replacing BEGINA to ENDA by BEGINB to ENDB.
+         * @param beginA given first old line.
+         * @param endA given end of the old lines.
+         * @param beginB given first new line.
+         * @param endB given end of the new lines. */
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+    }
+
+    /** return the lines of CONTENT, decoded as UTF-8, each with its
+     * line terminator, if it has one.
+     * @param content given content. */
+    static List<String> lines(byte[] content) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int end = text.indexOf('\n'); end >= 0;
+             end = text.indexOf('\n', start)) {
+            result.add(text.substring(start, end + 1));
+            start = end + 1;
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start));
+        }
+        return result;
+    }
+
+    /** return whether CONTENT looks binary, holding a NUL byte.
+     * @param content given content. */
+    static boolean isBinary(byte[] content) {
+        for (int i = 0; i < Math.min(content.length, BINARY_CHECK); i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** return the edits that turn A into B, in order, by Myers'
+     * algorithm or, if HISTOGRAM, by histogram diff.
+     * @param a given old lines.
+     * @param b given new lines.
+     * @param histogram whether to use histogram diff. */
+    static List<Edit> diff(List<String> a, List<String> b,
+                           boolean histogram) {
+        Map<String, Integer> numbers = new HashMap<>();
+        int[] x = number(a, numbers), y = number(b, numbers);
+        int[] counts = new int[numbers.size()];
+        for (int line : x) {
+            counts[line] += 1;
+        }
+        List<Edit> result = new ArrayList<>();
+        ArrayDeque<int[]> pending = new ArrayDeque<>();
+        pending.push(new int[] {0, x.length, 0, y.length});
+        while (!pending.isEmpty()) {
+            int[] range = pending.pop();
+            int aLo = range[0], aHi = range[1], bLo = range[2];
+            int bHi = range[3];
+            while (aLo < aHi && bLo < bHi && x[aLo] == y[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && x[aHi - 1] == y[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                if (aLo < aHi || bLo < bHi) {
+                    add(result, new Edit(aLo, aHi, bLo, bHi));
+                }
+                continue;
+            }
+            int[] split = histogram
+                    ? anchor(x, aLo, aHi, y, bLo, bHi, counts) : null;
+            if (split == null) {
+                split = middle(x, aLo, aHi, y, bLo, bHi);
+            }
+            if (split == null) {
+                add(result, new Edit(aLo, aHi, bLo, bHi));
+                continue;
+            }
+            pending.push(new int[] {split[2], aHi, split[3], bHi});
+            pending.push(new int[] {aLo, split[0], bLo, split[1]});
+        }
+        return result;
+    }
+
+    /** return LINES numbered so that equal lines, here and in earlier
+     * calls with the same NUMBERS, get equal numbers.
+     * @param lines given lines.
+     * @param numbers the numbers of the lines seen so far. */
+    private static int[] number(List<String> lines,
+                                Map<String, Integer> numbers) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer n = numbers.putIfAbsent(lines.get(i), numbers.size());
+            result[i] = n == null ? numbers.size() - 1 : n;
+        }
+        return result;
+    }
+
+    /** append EDIT to EDITS, joining it to the last edit if they
+     * touch.
+     * @param edits given edits.
+     * @param edit given edit. */
+    private static void add(List<Edit> edits, Edit edit) {
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.endA == edit.beginA && last.endB == edit.beginB) {
+                edits.set(edits.size() - 1, new Edit(last.beginA,
+                        edit.endA, last.beginB, edit.endB));
+                return;
+            }
+        }
+        edits.add(edit);
+    }
+
+    /** return the point {x, y, x, y} of a shortest edit script from
+     * A[ALO, AHI) to B[BLO, BHI) where the forward and backward
+     * searches of Myers' algorithm meet, or null if the ranges have
+     * no line in common. Neither range is empty, and they start and
+     * end with different lines.
+     * @param a given old lines.
+     * @param aLo given start of the old range.
+     * @param aHi given end of the old range.
+     * @param b given new lines.
+     * @param bLo given start of the new range.
+     * @param bHi given end of the new range. */
+    private static int[] middle(int[] a, int aLo, int aHi,
+                                int[] b, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int maxD = (n + m + 1) / 2, offset = maxD, delta = n - m;
+        int[] forward = new int[2 * maxD + 2];
+        int[] backward = new int[2 * maxD + 2];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        boolean front = (delta & 1) != 0;
+        int k1start = 0, k1end = 0, k2start = 0, k2end = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int i = offset + k1;
+                int x1 = k1 == -d || (k1 != d && forward[i - 1]
+                        < forward[i + 1]) ? forward[i + 1]
+                        : forward[i - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                forward[i] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int j = offset + delta - k1;
+                    if (j >= 0 && j < forward.length && backward[j] != -1
+                            && x1 >= n - backward[j]) {
+                        return split(aLo + x1, bLo + y1);
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int j = offset + k2;
+                int x2 = k2 == -d || (k2 != d && backward[j - 1]
+                        < backward[j + 1]) ? backward[j + 1]
+                        : backward[j - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m
+                        && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                backward[j] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int i = offset + delta - k2;
+                    if (i >= 0 && i < forward.length && forward[i] != -1) {
+                        int x1 = forward[i];
+                        int y1 = offset + x1 - i;
+                        if (x1 >= n - x2) {
+                            return split(aLo + x1, bLo + y1);
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** return the split of two ranges at old line X and new line Y.
+     * @param x given old line.
+     * @param y given new line. */
+    private static int[] split(int x, int y) {
+        return new int[] {x, y, x, y};
+    }
+
+    /** return the split {x, y, x + length, y + length} of A[ALO, AHI)
+     * and B[BLO, BHI) around the longest run of common lines through
+     * the common line occurring least often in A, by COUNTS, or null
+     * if every common line occurs more than MAX_CHAIN times.
+     * @param a given old lines.
+     * @param aLo given start of the old range.
+     * @param aHi given end of the old range.
+     * @param b given new lines.
+     * @param bLo given start of the new range.
+     * @param bHi given end of the new range.
+     * @param counts the number of times each line occurs in A. */
+    private static int[] anchor(int[] a, int aLo, int aHi,
+                                int[] b, int bLo, int bHi, int[] counts) {
+        Map<Integer, List<Integer>> positions = new HashMap<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            if (counts[a[i]] <= MAX_CHAIN) {
+                positions.computeIfAbsent(a[i], k -> new ArrayList<>())
+                        .add(i);
+            }
+        }
+        int[] best = null;
+        int bestCount = MAX_CHAIN + 1, bestLength = 0;
+        for (int j = bLo; j < bHi; j += 1) {
+            List<Integer> occurrences = positions.get(b[j]);
+            if (occurrences == null || occurrences.size() > bestCount) {
+                continue;
+            }
+            for (int i : occurrences) {
+                int before = 0, after = 1;
+                while (i - before > aLo && j - before > bLo
+                        && a[i - before - 1] == b[j - before - 1]) {
+                    before += 1;
+                }
+                while (i + after < aHi && j + after < bHi
+                        && a[i + after] == b[j + after]) {
+                    after += 1;
+                }
+                int length = before + after;
+                if (occurrences.size() < bestCount
+                        || length > bestLength) {
+                    bestCount = occurrences.size();
+                    bestLength = length;
+                    best = new int[] {i - before, j - before,
+                        i + after, j + after};
+                }
+            }
+        }
+        return best;
+    }
+
+    /** write the unified diff of the file NAME, whose old contents
+     * are A and new contents are B, either null if the file is
+     * absent, to OUT, one hunk at a time.
+     * @param out given output.
+     * @param name given file name.
+     * @param a given old contents.
+     * @param b given new contents.
+     * @param histogram whether to use histogram diff. */
+    static void write(Writer out, String name, byte[] a, byte[] b,
+                      boolean histogram) throws IOException {
+        String from = a == null ? "/dev/null" : "a/" + name;
+        String to = b == null ? "/dev/null" : "b/" + name;
+        out.write("diff --git a/" + name + " b/" + name + "\n");
+        byte[] oldBytes = a == null ? new byte[0] : a;
+        byte[] newBytes = b == null ? new byte[0] : b;
+        if (isBinary(oldBytes) || isBinary(newBytes)) {
+            out.write("Binary files " + from + " and " + to + " differ\n");
+            return;
+        }
+        out.write("--- " + from + "\n+++ " + to + "\n");
+        List<String> x = lines(oldBytes), y = lines(newBytes);
+        List<Edit> edits = diff(x, y, histogram);
+        for (int first = 0; first < edits.size();) {
+            int last = first;
+            while (last + 1 < edits.size() && edits.get(last + 1).beginA
+                    - edits.get(last).endA <= 2 * CONTEXT) {
+                last += 1;
+            }
+            writeHunk(out, x, y, edits.subList(first, last + 1));
+            first = last + 1;
+        }
+    }
+
+    /** write the hunk of the close EDITS of A into B, with CONTEXT
+     * lines around them, to OUT.
+     * @param out given output.
+     * @param a given old lines.
+     * @param b given new lines.
+     * @param edits given edits. */
+    private static void writeHunk(Writer out, List<String> a,
+                                  List<String> b, List<Edit> edits)
+            throws IOException {
+        Edit first = edits.get(0), last = edits.get(edits.size() - 1);
+        int aStart = Math.max(0, first.beginA - CONTEXT);
+        int bStart = first.beginB - (first.beginA - aStart);
+        int aEnd = Math.min(a.size(), last.endA + CONTEXT);
+        int bEnd = last.endB + (aEnd - last.endA);
+        out.write("@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd)
+                + " @@\n");
+        int i = aStart;
+        for (Edit edit : edits) {
+            writeLines(out, ' ', a, i, edit.beginA);
+            writeLines(out, '-', a, edit.beginA, edit.endA);
+            writeLines(out, '+', b, edit.beginB, edit.endB);
+            i = edit.endA;
+        }
+        writeLines(out, ' ', a, i, aEnd);
+    }
+
+    /** return the range of lines START to END as shown in a hunk
+     * header.
+     * @param start given first line.
+     * @param end given end of the lines. */
+    private static String range(int start, int end) {
+        if (end - start == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (end == start ? start : start + 1) + "," + (end - start);
+    }
+
+    /** write LINES[FROM, TO) to OUT, each after PREFIX.
+     * @param out given output.
+     * @param prefix given prefix.
+     * @param lines given lines.
+     * @param from given first line.
+     * @param to given end of the lines. */
+    private static void writeLines(Writer out, char prefix,
+                                   List<String> lines, int from, int to)
+            throws IOException {
+        for (int i = from; i < to; i += 1) {
+            String line = lines.get(i);
+            out.write(prefix);
+            out.write(line);
+            if (!line.endsWith("\n")) {
+                out.write("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** add to RESULT the lines of the three-way merge of OURS and
+     * THEIRS, both changed from BASE, and return whether they merged
+     * without conflict. A region of BASE changed by one side only
+     * takes that side's lines; a region both sides changed
+     * differently holds both versions between conflict markers.
+     * @param base given common ancestor lines.
+     * @param ours given current lines.
+     * @param theirs given other lines.
+     * @param result the merged lines. */
+    static boolean merge(List<String> base, List<String> ours,
+                         List<String> theirs, List<String> result) {
+        List<Edit> mine = diff(base, ours, false);
+        List<Edit> other = diff(base, theirs, false);
+        boolean clean = true;
+        int at = 0, i = 0, j = 0;
+        while (i < mine.size() || j < other.size()) {
+            boolean fromMine = j == other.size() || (i < mine.size()
+                    && mine.get(i).beginA <= other.get(j).beginA);
+            int lo = (fromMine ? mine.get(i) : other.get(j)).beginA;
+            int hi = (fromMine ? mine.get(i) : other.get(j)).endA;
+            int i0 = i, j0 = j;
+            while (true) {
+                if (i < mine.size() && mine.get(i).beginA <= hi) {
+                    hi = Math.max(hi, mine.get(i).endA);
+                    i += 1;
+                } else if (j < other.size() && other.get(j).beginA <= hi) {
+                    hi = Math.max(hi, other.get(j).endA);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            result.addAll(base.subList(at, lo));
+            List<String> ourLines = apply(base, ours, mine.subList(i0, i),
+                    lo, hi);
+            List<String> theirLines = apply(base, theirs,
+                    other.subList(j0, j), lo, hi);
+            if (j == j0 || ourLines.equals(theirLines)) {
+                result.addAll(ourLines);
+            } else if (i == i0) {
+                result.addAll(theirLines);
+            } else {
+                clean = false;
+                result.add("<<<<<<< HEAD\n");
+                addTerminated(result, ourLines);
+                result.add("=======\n");
+                addTerminated(result, theirLines);
+                result.add(">>>>>>>\n");
+            }
+            at = hi;
+        }
+        result.addAll(base.subList(at, base.size()));
+        return clean;
+    }
+
+    /** return BASE[LO, HI) with the EDITS that turn BASE into SIDE
+     * applied.
+     * @param base given base lines.
+     * @param side given changed lines.
+     * @param edits given edits within LO and HI.
+     * @param lo given first base line.
+     * @param hi given end of the base lines. */
+    private static List<String> apply(List<String> base, List<String> side,
+                                      List<Edit> edits, int lo, int hi) {
+        List<String> result = new ArrayList<>();
+        int at = lo;
+        for (Edit edit : edits) {
+            result.addAll(base.subList(at, edit.beginA));
+            result.addAll(side.subList(edit.beginB, edit.endB));
+            at = edit.endA;
+        }
+        result.addAll(base.subList(at, hi));
+        return result;
+    }
+
+    /** add LINES to RESULT, ending the last one with a line
+     * terminator if it has none.
+     * @param result given result.
+     * @param lines given lines. */
+    private static void addTerminated(List<String> result,
+                                      List<String> lines) {
+        result.addAll(lines);
+        int last = result.size() - 1;
+        if (!lines.isEmpty() && !result.get(last).endsWith("\n")) {
+            result.set(last, result.get(last) + "\n");
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Tests of the line diff and three-way merge of Diff, on random
+ * files of few distinct lines, so that they share many lines.
+ *  @author Haoqing Xuan
+ */
+public class DiffTest {
+
+    /** the number of random pairs of files tried. */
+    private static final int ROUNDS = 500;
+
+    /** The unified diff of A into B, applied to A, gives B again, by
+     * either algorithm. */
+    @Test
+    public void roundTripTest() throws IOException {
+        Random random = new Random(22);
+        for (int i = 0; i < ROUNDS; i += 1) {
+            String a = file(random), b = file(random);
+            for (boolean histogram : new boolean[] {false, true}) {
+                String diff = diff(a, b, histogram);
+                assertEquals(diff, b, patch(a, diff));
+            }
+        }
+    }
+
+    /** Myers' algorithm removes and adds no more lines than those
+     * outside a longest common subsequence of A and B. */
+    @Test
+    public void minimalityTest() throws IOException {
+        Random random = new Random(9);
+        for (int i = 0; i < ROUNDS; i += 1) {
+            String a = file(random), b = file(random);
+            List<String> x = Diff.lines(bytes(a)), y = Diff.lines(bytes(b));
+            int changed = 0;
+            for (String line : diff(a, b, false).split("\n")) {
+                if (line.startsWith("-") && !line.startsWith("--- ")
+                        || line.startsWith("+") && !line.startsWith("+++ ")) {
+                    changed += 1;
+                }
+            }
+            assertEquals(a + "\n" + b, x.size() + y.size() - 2 * lcs(x, y),
+                    changed);
+        }
+    }
+
+    /** Equal files have no hunks. */
+    @Test
+    public void equalTest() throws IOException {
+        String diff = diff("a\nb\nc\n", "a\nb\nc\n", false);
+        assertFalse(diff, diff.contains("@@"));
+    }
+
+    /** Changes to different regions merge cleanly, and a change made
+     * by one side only, or the same on both, is taken. */
+    @Test
+    public void cleanMergeTest() {
+        List<String> base = Diff.lines(bytes("1\n2\n3\n4\n5\n6\n7\n"));
+        List<String> ours = Diff.lines(bytes("one\n2\n3\n4\n5\n6\n7\n"));
+        List<String> theirs = Diff.lines(bytes("1\n2\n3\n4\n5\n6\nseven\n"));
+        List<String> result = new ArrayList<>();
+        assertTrue(Diff.merge(base, ours, theirs, result));
+        assertEquals("one\n2\n3\n4\n5\n6\nseven\n", String.join("", result));
+        result.clear();
+        assertTrue(Diff.merge(base, ours, base, result));
+        assertEquals(ours, result);
+        result.clear();
+        assertTrue(Diff.merge(base, base, theirs, result));
+        assertEquals(theirs, result);
+        result.clear();
+        assertTrue(Diff.merge(base, ours, ours, result));
+        assertEquals(ours, result);
+    }
+
+    /** Different changes to the same region are left between conflict
+     * markers, the rest merging as usual. */
+    @Test
+    public void conflictMergeTest() {
+        List<String> base = Diff.lines(bytes("1\n2\n3\n4\n5\n6\n7\n"));
+        List<String> ours = Diff.lines(bytes("one\n2\n3\nfour\n5\n6\n7\n"));
+        List<String> theirs = Diff.lines(bytes("1\n2\n3\nFOUR\n5\n6\n7"));
+        List<String> result = new ArrayList<>();
+        assertFalse(Diff.merge(base, ours, theirs, result));
+        assertEquals("one\n2\n3\n<<<<<<< HEAD\nfour\n=======\nFOUR\n"
+                + ">>>>>>>\n5\n6\n7", String.join("", result));
+    }
+
+    /** return a random file of up to 30 lines, each one of a few, the
+     * last one without a line terminator now and then.
+     * @param random given source of randomness. */
+    private static String file(Random random) {
+        StringBuilder result = new StringBuilder();
+        int lines = random.nextInt(30);
+        for (int i = 0; i < lines; i += 1) {
+            result.append((char) ('a' + random.nextInt(4))).append('\n');
+        }
+        if (lines > 0 && random.nextInt(4) == 0) {
+            result.setLength(result.length() - 1);
+        }
+        return result.toString();
+    }
+
+    /** return the unified diff of A into B.
+     * @param a given old contents.
+     * @param b given new contents.
+     * @param histogram whether to use histogram diff. */
+    private static String diff(String a, String b, boolean histogram)
+            throws IOException {
+        StringWriter out = new StringWriter();
+        Diff.write(out, "f", bytes(a), bytes(b), histogram);
+        return out.toString();
+    }
+
+    /** return A with the hunks of the unified DIFF applied.
+     * @param a given old contents.
+     * @param diff given unified diff. */
+    private static String patch(String a, String diff) {
+        List<String> old = Diff.lines(bytes(a));
+        List<String> lines = Diff.lines(bytes(diff));
+        List<String> result = new ArrayList<>();
+        int at = 0;
+        for (int i = 0; i < lines.size(); i += 1) {
+            String line = lines.get(i);
+            if (line.startsWith("@@ -")) {
+                String range = line.substring(4, line.indexOf(' ', 4));
+                int start = Integer.parseInt(range.split(",")[0]);
+                boolean empty = range.endsWith(",0");
+                int begin = empty ? start : start - 1;
+                result.addAll(old.subList(at, begin));
+                at = begin;
+                continue;
+            } else if (!line.startsWith(" ") && !line.startsWith("-")
+                    && !line.startsWith("+") || line.startsWith("--- ")
+                    || line.startsWith("+++ ")) {
+                continue;
+            }
+            String text = line.substring(1);
+            if (i + 1 < lines.size()
+                    && lines.get(i + 1).startsWith("\\ No newline")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            if (line.charAt(0) != '+') {
+                assertEquals(old.get(at), text);
+                at += 1;
+            }
+            if (line.charAt(0) != '-') {
+                result.add(text);
+            }
+        }
+        result.addAll(old.subList(at, old.size()));
+        return String.join("", result);
+    }
+
+    /** return the length of a longest common subsequence of X and Y.
+     * @param x given lines.
+     * @param y given lines. */
+    private static int lcs(List<String> x, List<String> y) {
+        int[][] lengths = new int[x.size() + 1][y.size() + 1];
+        for (int i = x.size() - 1; i >= 0; i -= 1) {
+            for (int j = y.size() - 1; j >= 0; j -= 1) {
+                lengths[i][j] = x.get(i).equals(y.get(j))
+                        ? lengths[i + 1][j + 1] + 1
+                        : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+        return lengths[0][0];
+    }
+
+    /** return S encoded as UTF-8.
+     * @param s given string. */
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
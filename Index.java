@@ -0,0 +1,285 @@
+package gitlet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** The stat cache of the working directory, so that unchanged files
+ * are not hashed again. INDEX starts with MAGIC, a version and the
+ * number of entries, followed by one entry per file sorted by name:
+ * the name, the id of its blob, then its size, modification time and
+ * inode when it was hashed. A file whose size, modification time and
+ * inode are those recorded is taken to still have the recorded id.
+ *
+ * A file changed in the same clock tick as it was hashed keeps its
+ * recorded modification time. So when the index is written, the size
+ * of every entry modified less than RACY_WINDOW before the command
+ * started is smudged, and such racily clean files are hashed again
+ * by the next command, after which they are trusted. In memory, an
+ * entry recorded less than RACY_WINDOW after its file was modified
+ * is racy and not trusted either, as a batch runs many commands on
+ * one index while other processes may change the files.
+ * @author Haoqing Xuan
+ */
+class Index {
+    /** the index file. */
+    static final File INDEX = new File(".gitlet/index");
+    /** the bytes that start INDEX. */
+    private static final byte[] MAGIC = {'G', 'I', 'N', 'D'};
+    /** the version of the index format. */
+    private static final int VERSION = 1;
+    /** the coarsest timestamp granularity of the file systems
+     * the working directory may be on, in nanoseconds. */
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+    /** the size of an entry that must be hashed again. */
+    private static final long SMUDGED = -1;
+
+    /** The recorded state of one file. */
+    private static class Entry {
+        /** the id of the blob of the file. */
+        private final String id;
+        /** the size of the file. */
+        private final long size;
+        /** the modification time of the file, in nanoseconds. */
+        private final long mtime;
+        /** the inode of the file, or 0 if it is not known. */
+        private final long inode;
+        /** whether the file was recorded too soon after it was modified
+         * for the stat data to show a later change. */
+        private final boolean racy;
+
+        /** an entry of a file with ID, SIZE, MTIME and INODE.
+         * @param id given id.
+         * @param size given size.
+         * @param mtime given modification time.
+         * @param inode given inode. */
+        Entry(String id, long size, long mtime, long inode) {
+            this(id, size, mtime, inode, false);
+        }
+
+        /** an entry of a file with ID, SIZE, MTIME and INODE, which
+         * is RACY if it was recorded too soon after it was modified.
+         * @param id given id.
+         * @param size given size.
+         * @param mtime given modification time.
+         * @param inode given inode.
+         * @param racy given racy. */
+        Entry(String id, long size, long mtime, long inode, boolean racy) {
+            this.id = id;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.racy = racy;
+        }
+
+        /** return whether this entry records the same stat data
+         * as OTHER.
+         * @param other given entry. */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime
+                    && inode == other.inode;
+        }
+    }
+
+    /** the entries by file name. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** the time this command started. */
+    private final long startTime = now();
+    /** whether entries changed since INDEX was read. */
+    private boolean dirty;
+
+    /** return the index of the repository, which is empty if
+     * INDEX does not exist. */
+    static Index read() {
+        Index index = new Index();
+        if (!INDEX.isFile()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(
+                        INDEX.toPath())))) {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt index.");
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                index.entries.put(Codec.readString(in),
+                        new Entry(Codec.readID(in), in.readLong(),
+                                in.readLong(), in.readLong()));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return index;
+    }
+
+    /** return the id FILE had when it was last hashed, or null if it
+     * may have changed since.
+     * @param file given file. */
+    String cached(File file) {
+        Entry entry = entries.get(file.getName());
+        if (entry == null || entry.size == SMUDGED || entry.racy) {
+            return null;
+        }
+        Entry now = stat(file, entry.id);
+        return now != null && entry.sameStat(now) ? entry.id : null;
+    }
+
+    /** return the ids of the blobs of FILES by name, hashing the
+     * files that may have changed since they were last hashed in
+     * parallel, on core.threads threads.
+     * @param files given files. */
+    Map<String, String> hashAll(Collection<File> files) {
+        Map<String, String> result = new ConcurrentHashMap<>();
+        Map<String, Entry> hashed = new ConcurrentHashMap<>();
+        Utils.parallelForEach(files, file -> {
+            String id = cached(file);
+            if (id == null) {
+                Entry before = stat(file, null);
+                id = Blobs.hash(file);
+                if (before != null) {
+                    hashed.put(file.getName(), before);
+                }
+            }
+            result.put(file.getName(), id);
+        });
+        for (Map.Entry<String, Entry> e : hashed.entrySet()) {
+            put(new File(e.getKey()), e.getValue(), result.get(e.getKey()));
+        }
+        return result;
+    }
+
+    /** store FILE unless it is unchanged since it was last hashed
+     * and its blob is stored, and return its blob.
+     * @param file given file. */
+    Blobs store(File file) {
+        String id = cached(file);
+        if (id != null && ObjectStore.contains(ObjectStore.BLOB, id)) {
+            return Blobs.load(id);
+        }
+        Entry before = stat(file, null);
+        Blobs blob = Blobs.store(file);
+        put(file, before, blob.getContentID());
+        return blob;
+    }
+
+    /** record that FILE was just written with the blob ID. Files may
+     * be recorded by several threads at once.
+     * @param file given file.
+     * @param id given id. */
+    void record(File file, String id) {
+        Entry before = stat(file, null);
+        synchronized (entries) {
+            put(file, before, id);
+        }
+    }
+
+    /** record the stat data BEFORE of FILE with ID, unless FILE
+     * could not be read. The entry is racy if FILE was modified less
+     * than RACY_WINDOW ago.
+     * @param file given file.
+     * @param before given stat data.
+     * @param id given id. */
+    private void put(File file, Entry before, String id) {
+        if (before != null) {
+            entries.put(file.getName(), new Entry(id, before.size,
+                    before.mtime, before.inode,
+                    before.mtime + RACY_WINDOW > now()));
+            dirty = true;
+        }
+    }
+
+    /** return the stat data of FILE as an entry with ID, or null if
+     * it is not a file.
+     * @param file given file.
+     * @param id given id. */
+    private static Entry stat(File file, String id) {
+        Path path = file.toPath();
+        try {
+            long inode = 0;
+            FileTime mtime;
+            long size;
+            try {
+                Map<String, Object> unix = Files.readAttributes(path,
+                        "unix:size,lastModifiedTime,ino,isRegularFile");
+                if (!(Boolean) unix.get("isRegularFile")) {
+                    return null;
+                }
+                size = (Long) unix.get("size");
+                mtime = (FileTime) unix.get("lastModifiedTime");
+                inode = (Long) unix.get("ino");
+            } catch (UnsupportedOperationException excp) {
+                BasicFileAttributes basic = Files.readAttributes(path,
+                        BasicFileAttributes.class);
+                if (!basic.isRegularFile()) {
+                    return null;
+                }
+                size = basic.size();
+                mtime = basic.lastModifiedTime();
+            }
+            return new Entry(id, size, toNanos(mtime), inode);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** return TIME in nanoseconds since the epoch.
+     * @param time given time. */
+    private static long toNanos(FileTime time) {
+        return TimeUnit.SECONDS.toNanos(time.toInstant().getEpochSecond())
+                + time.toInstant().getNano();
+    }
+
+    /** return the current time in nanoseconds since the epoch. */
+    private static long now() {
+        return toNanos(FileTime.from(Instant.now()));
+    }
+
+    /** write the index, if it changed, dropping the entries of files
+     * that no longer exist and smudging the racily clean ones. */
+    void write() {
+        if (!dirty) {
+            return;
+        }
+        entries.keySet().removeIf(name -> !new File(name).isFile());
+        try {
+            File tmp = Files.createTempFile(INDEX.getParentFile().toPath(),
+                    "tmp_", "").toFile();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            tmp.toPath())))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    boolean racy = entry.mtime + RACY_WINDOW > startTime;
+                    Codec.writeString(out, e.getKey());
+                    Codec.writeID(out, entry.id);
+                    out.writeLong(racy ? SMUDGED : entry.size);
+                    out.writeLong(entry.mtime);
+                    out.writeLong(entry.inode);
+                }
+            }
+            Files.move(tmp.toPath(), INDEX.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+    }
+}
@@ -0,0 +1,161 @@
+package gitlet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/** Tests that a repository written by the first version of gitlet,
+ * kept in testing/baseline, can still be used and migrated. Its
+ * commits and staged files are serialized objects holding file
+ * contents inline, and its branches are in a serialized .gitlet/repo.
+ * Each test runs gitlet in a copy of it.
+ *  @author Haoqing Xuan
+ */
+public class LegacyRepoTest {
+
+    /** the repository written by the first version of gitlet. */
+    private static final Path FIXTURE = Paths.get("testing", "baseline");
+
+    /** Status reads the branches and the staged files. */
+    @Test
+    public void statusTest() throws IOException {
+        Path repo = copy();
+        String status = gitlet(repo, "status");
+        String branches = status.substring(0, status.indexOf("\n\n"));
+        assertEquals(Set.of("=== Branches ===", "*master", "other",
+                "feature/x"), Set.of(branches.split("\n")));
+        assertTrue(status, status.contains("=== Staged Files ===\nc.txt\n"));
+        assertTrue(status, status.contains("=== Removed Files ===\nb.txt\n"));
+    }
+
+    /** A branch whose name is not a plain file name, which the first
+     * version allowed, is kept and can be checked out. */
+    @Test
+    public void slashedBranchTest() throws IOException {
+        Path repo = copy();
+        gitlet(repo, "checkout", "feature/x");
+        String status = gitlet(repo, "status");
+        assertTrue(status, status.contains("*feature/x\n"));
+        assertEquals("alpha 2\n", read(repo, "a.txt"));
+        assertEquals("beta\n", read(repo, "b.txt"));
+        gitlet(repo, "checkout", "master");
+        gitlet(repo, "rm-branch", "feature/x");
+        status = gitlet(repo, "status");
+        assertFalse(status, status.contains("feature/x"));
+    }
+
+    /** Files are checked out of commits whose contents were inline. */
+    @Test
+    public void checkoutTest() throws IOException {
+        Path repo = copy();
+        String log = gitlet(repo, "log");
+        assertTrue(log, log.contains("second version"));
+        assertTrue(log, log.contains("initial commit"));
+        String first = commit(log, "first version");
+        gitlet(repo, "checkout", first, "--", "a.txt");
+        assertEquals("alpha\n", read(repo, "a.txt"));
+        gitlet(repo, "checkout", first, "--", "b.txt");
+        assertEquals("beta\n", read(repo, "b.txt"));
+    }
+
+    /** Migrate rewrites every commit, after which the history, the
+     * contents and the stage are the same and new commits build on
+     * them. */
+    @Test
+    public void migrateTest() throws IOException {
+        Path repo = copy();
+        String log = gitlet(repo, "log");
+        String migrated = gitlet(repo, "migrate");
+        assertTrue(migrated, migrated.startsWith("Migrated"));
+        assertFalse(Files.exists(repo.resolve(".gitlet/repo")));
+        assertFalse(Files.exists(repo.resolve(".gitlet/stage")));
+        assertEquals(log, gitlet(repo, "log"));
+        gitlet(repo, "commit", "third version");
+        String newLog = gitlet(repo, "log");
+        assertTrue(newLog, newLog.endsWith(log));
+        gitlet(repo, "checkout", commit(log, "second version"), "--",
+                "a.txt");
+        assertEquals("alpha 2\n", read(repo, "a.txt"));
+        assertEquals("gamma\n", read(repo, "c.txt"));
+        assertFalse(Files.exists(repo.resolve("b.txt")));
+    }
+
+    /** return a copy of FIXTURE in a new temporary directory. */
+    private static Path copy() throws IOException {
+        Path target = Files.createTempDirectory("gitlet-baseline");
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(FIXTURE)) {
+            walk.forEach(files::add);
+        }
+        for (Path file : files) {
+            Path copy = target.resolve(FIXTURE.relativize(file).toString());
+            if (Files.isDirectory(file)) {
+                Files.createDirectories(copy);
+            } else {
+                Files.copy(file, copy);
+            }
+        }
+        return target;
+    }
+
+    /** return the standard output of gitlet run with ARGS in the
+     * directory REPO.
+     * @param repo given directory.
+     * @param args given arguments. */
+    private static String gitlet(Path repo, String... args)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command)
+                .directory(repo.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        String out = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        try {
+            assertEquals(out, 0, process.waitFor());
+        } catch (InterruptedException excp) {
+            fail(excp.getMessage());
+        }
+        return out.replace("\r\n", "\n");
+    }
+
+    /** return the id of the commit with MESSAGE in LOG.
+     * @param log given log.
+     * @param message given message. */
+    private static String commit(String log, String message) {
+        String[] lines = log.split("\n");
+        for (int i = 0; i < lines.length; i += 1) {
+            if (lines[i].equals(message)) {
+                for (int k = i; k >= 0; k -= 1) {
+                    if (lines[k].startsWith("commit ")) {
+                        return lines[k].substring("commit ".length());
+                    }
+                }
+            }
+        }
+        fail("no commit " + message + " in " + log);
+        return null;
+    }
+
+    /** return the contents of NAME in REPO.
+     * @param repo given directory.
+     * @param name given file name. */
+    private static String read(Path repo, String name) throws IOException {
+        return new String(Files.readAllBytes(repo.resolve(name)),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -1,6 +1,14 @@
 package gitlet;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
@@ -11,12 +19,44 @@ public class Main {
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** gitlet directory pathname. */
     private static final File GITLET_DIR = new File(CWD, ".gitlet");
-    /** repo directory pathname. */
-    private static final File REPO = Utils.join(GITLET_DIR, "/", "repo");
 
-    /** run commands with different names.
+    /** run commands with different names, on the daemon of the
+     * repository if one is running.
      * @param args given input. */
     public static void main(String... args) throws IOException {
+        if (args != null && args.length != 0 && !args[0].equals("daemon")
+                && !args[0].equals("--batch") && Daemon.forward(args)) {
+            return;
+        }
+        execute(args);
+    }
+
+    /** run the command ARGS, printing the message of any
+     * GitletException it raises.
+     * @param args given input. */
+    static void execute(String... args) throws IOException {
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** run the command named by the first of ARGS.
+     * @param args given input. */
+    private static void run(String... args) throws IOException {
+        if (args != null && args.length != 0 && args[0].equals("--batch")) {
+            batchHelper(args);
+        } else {
+            run(null, args);
+        }
+    }
+
+    /** run the command named by the first of ARGS on REPO, or on the
+     * repository opened for it if REPO is null.
+     * @param repo the current repo.
+     * @param args given input. */
+    private static void run(Repo repo, String... args) throws IOException {
         String input = "";
         if (args != null && args.length != 0) {
             input = args[0];
@@ -33,7 +73,7 @@ public class Main {
                 System.out.println("Not in an initialized Gitlet directory.");
                 return;
             }
-            command = (Repo) Utils.readObject(REPO, Repo.class);
+            command = repo == null ? Repo.open() : repo;
             switch (input) {
             case "add":
                 addhelper(command, args);
@@ -68,22 +108,35 @@ public class Main {
             case "reset":
                 resetHelper(command, args);
                 break;
+            case "merge":
+                mergeHelper(command, args);
+                break;
+            case "diff":
+                diffHelper(command, args);
+                break;
+            case "repack":
+                repackHelper(command, args);
+                break;
+            case "migrate":
+                migrateHelper(command, args);
+                break;
+            case "daemon":
+                daemonHelper(args);
+                break;
             default:
                 System.out.println("No command with that name exists.");
                 return;
             }
         }
-        Utils.writeObject(REPO, command);
     }
     /** command helper.
      * @param repo the current repo.
      * @param args input. */
     public static void addhelper(Repo repo, String... args) throws IOException {
-        if (args.length != 2) {
+        if (args.length < 2) {
             System.out.println("Incorrect operands");
-            System.exit(0);
         } else {
-            repo.add(args[1]);
+            repo.add(Arrays.copyOfRange(args, 1, args.length));
         }
     }
     /** command helper.
@@ -106,21 +159,34 @@ public class Main {
      * @param args input. */
     public static void loghelper(Repo repo, String... args)
             throws IOException {
-        if (args.length != 1) {
-            System.out.println("Incorrect operands");
-        } else {
-            repo.log();
+        int skip = 0, count = Integer.MAX_VALUE;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length || !args[i + 1].matches("\\d{1,9}")) {
+                System.out.println("Incorrect operands");
+                return;
+            } else if (args[i].equals("-n")) {
+                count = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--skip")) {
+                skip = Integer.parseInt(args[i + 1]);
+            } else {
+                System.out.println("Incorrect operands");
+                return;
+            }
         }
+        repo.log(skip, count);
     }
     /** command helper.
      * @param repo the current repo.
      * @param args input. */
     public static void globalLogHelper(Repo repo, String... args)
             throws IOException {
-        if (args.length != 1) {
-            System.out.println("Incorrect operands");
-        } else {
+        if (args.length == 1) {
             repo.globalLog();
+        } else if (args.length == 3 && args[1].equals("--limit")
+                && args[2].matches("\\d{1,9}")) {
+            repo.globalLog(Integer.parseInt(args[2]));
+        } else {
+            System.out.println("Incorrect operands");
         }
     }
     /** command helper.
@@ -154,10 +220,14 @@ public class Main {
      * @param args input. */
     public static void findHelper(Repo repo, String... args)
             throws IOException {
-        if (args.length != 2) {
-            System.out.println("Incorrect operands");
-        } else {
+        if (args.length == 2) {
             repo.find(args[1]);
+        } else if (args.length == 3 && args[1].equals("--substring")) {
+            repo.findSubstring(args[2]);
+        } else if (args.length == 3 && args[1].equals("--regex")) {
+            repo.findRegex(args[2]);
+        } else {
+            System.out.println("Incorrect operands");
         }
     }
     /** command helper.
@@ -193,6 +263,30 @@ public class Main {
             repo.removeBranch(args[1]);
         }
     }
+    /** command helper.
+     * @param repo the current repo.
+     * @param args input. */
+    public static void diffHelper(Repo repo, String... args) {
+        boolean histogram = args.length > 1 && args[1].equals("--histogram");
+        int first = histogram ? 2 : 1;
+        if (args.length - first > 2) {
+            System.out.println("Incorrect operands");
+        } else {
+            repo.diff(histogram,
+                    Arrays.copyOfRange(args, first, args.length));
+        }
+    }
+    /** command helper.
+     * @param repo the current repo.
+     * @param args input. */
+    public static void mergeHelper(Repo repo, String... args)
+            throws IOException {
+        if (args.length != 2) {
+            System.out.println("Incorrect operands");
+        } else {
+            repo.merge(args[1]);
+        }
+    }
     /** command helper.
      * @param repo the current repo.
      * @param args input. */
@@ -204,4 +298,134 @@ public class Main {
             repo.reset(args[1]);
         }
     }
+    /** command helper.
+     * @param repo the current repo.
+     * @param args input. */
+    public static void repackHelper(Repo repo, String... args) {
+        if (args.length != 1) {
+            System.out.println("Incorrect operands");
+        } else {
+            repo.repack();
+        }
+    }
+    /** run the commands of a batch, one per line of the file named
+     * by the second of ARGS, or of standard input if there is none or
+     * it is "-", on the repository opened once for all of them. Words
+     * are split at blanks outside quotes, as a shell would, and blank
+     * lines and lines starting with # are skipped. The stat cache and
+     * staging area are written at the end, and at each line that is
+     * just "checkpoint".
+     * @param args input. */
+    public static void batchHelper(String... args) throws IOException {
+        if (args.length > 2) {
+            System.out.println("Incorrect operands");
+            return;
+        }
+        BufferedReader in;
+        if (args.length == 1 || args[1].equals("-")) {
+            in = new BufferedReader(new InputStreamReader(System.in,
+                    StandardCharsets.UTF_8));
+        } else if (new File(args[1]).isFile()) {
+            in = Files.newBufferedReader(Paths.get(args[1]),
+                    StandardCharsets.UTF_8);
+        } else {
+            System.out.println("File does not exist.");
+            return;
+        }
+        Repo repo = null;
+        try (in) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                try {
+                    String[] command = words(line);
+                    if (command.length == 0 || command[0].startsWith("#")) {
+                        continue;
+                    } else if (command.length == 1
+                            && command[0].equals("checkpoint")) {
+                        if (repo != null) {
+                            repo.checkpoint();
+                        }
+                        continue;
+                    } else if (repo == null && GITLET_DIR.exists()
+                            && !command[0].equals("init")) {
+                        repo = Repo.open();
+                        repo.deferWrites();
+                    }
+                    run(repo, command);
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                }
+            }
+        } finally {
+            if (repo != null) {
+                repo.checkpoint();
+            }
+        }
+    }
+    /** return the words of LINE, split at blanks outside single or
+     * double quotes, with the quotes removed. Outside single quotes,
+     * a backslash takes the next character literally.
+     * @param line given line. */
+    private static String[] words(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '\\' && quote != '\'' && i + 1 < line.length()) {
+                i += 1;
+                c = line.charAt(i);
+            } else if (quote != 0 && c == quote) {
+                quote = 0;
+                continue;
+            } else if (quote == 0 && (c == '"' || c == '\'')) {
+                quote = c;
+                word = word == null ? new StringBuilder() : word;
+                continue;
+            } else if (quote == 0 && Character.isWhitespace(c)) {
+                if (word != null) {
+                    result.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            word = word == null ? new StringBuilder() : word;
+            word.append(c);
+        }
+        if (quote != 0) {
+            throw Utils.error("Unterminated quote: %s", line);
+        } else if (word != null) {
+            result.add(word.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+    /** command helper.
+     * @param args input. */
+    public static void daemonHelper(String... args) {
+        if (args.length > 2) {
+            System.out.println("Incorrect operands");
+            return;
+        }
+        int idle = Config.getInt("daemon.idleTimeout",
+                Daemon.DEFAULT_IDLE_TIMEOUT);
+        try {
+            if (args.length == 2) {
+                idle = Integer.parseInt(args[1]);
+            }
+        } catch (NumberFormatException excp) {
+            System.out.println("Incorrect operands");
+            return;
+        }
+        Daemon.serve(idle);
+    }
+    /** command helper.
+     * @param repo the current repo.
+     * @param args input. */
+    public static void migrateHelper(Repo repo, String... args) {
+        if (args.length != 1) {
+            System.out.println("Incorrect operands");
+        } else {
+            repo.migrate();
+        }
+    }
 }
@@ -0,0 +1,257 @@
+package gitlet;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/** An inverted index over commit messages, so find reads neither
+ * every commit nor every message. INDEX starts with MAGIC, a
+ * version, the number of commits of the CommitGraph it covers and
+ * the number of keys, followed by one RECORD_SIZE record per key
+ * sorted by key: the key, then the offset and the length of its
+ * postings. The keys are the trigrams of the messages, three chars
+ * packed in a long, and the postings of a key are the sorted graph
+ * positions of the commits whose message contains it.
+ *
+ * A message equal to or containing a query contains every trigram
+ * of the query, so the candidates are the intersection of their
+ * postings, which are then checked against the messages stored in
+ * the commit graph. Commits newer than the index are always
+ * candidates; the index is rewritten once REBUILD_INTERVAL commits
+ * are not covered by it. Regular expressions are matched against
+ * every stored message.
+ * @author Haoqing Xuan
+ */
+class MessageIndex {
+    /** the index file. */
+    static final File INDEX = new File(".gitlet/message-index");
+    /** the bytes that start INDEX. */
+    private static final byte[] MAGIC = {'G', 'M', 'I', 'X'};
+    /** the version of the index format. */
+    private static final int VERSION = 1;
+    /** the size of the header of INDEX. */
+    private static final int HEADER_SIZE = 16;
+    /** the size of each record of INDEX. */
+    private static final int RECORD_SIZE = 16;
+    /** the length of a key. */
+    private static final int GRAM = 3;
+    /** the number of commits left out of the index before it is
+     * rewritten. */
+    private static final int REBUILD_INTERVAL = 256;
+
+    /** the mapped index. */
+    private final MappedByteBuffer index;
+    /** the number of commits covered. */
+    private final int count;
+    /** the number of keys. */
+    private final int keys;
+
+    /** map the index file. */
+    private MessageIndex() throws IOException {
+        try (FileChannel channel = FileChannel.open(INDEX.toPath())) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        byte[] magic = new byte[MAGIC.length];
+        index.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || index.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt message index.");
+        }
+        count = index.getInt(8);
+        keys = index.getInt(12);
+    }
+
+    /** return the index covering the first commits of GRAPH, or null
+     * if there is none.
+     * @param graph given graph. */
+    private static MessageIndex open(CommitGraph graph) {
+        if (!INDEX.isFile()) {
+            return null;
+        }
+        try {
+            MessageIndex result = new MessageIndex();
+            return result.count <= graph.size() ? result : null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** rewrite the index if REBUILD_INTERVAL commits of the graph
+     * are not covered by it. Called after each commit. */
+    static void update() {
+        CommitGraph graph = CommitGraph.get();
+        MessageIndex current = open(graph);
+        int covered = current == null ? 0 : current.count;
+        if (graph.size() - covered >= REBUILD_INTERVAL) {
+            write(graph);
+        }
+    }
+
+    /** delete the index, whose positions no longer match the graph. */
+    static void invalidate() {
+        INDEX.delete();
+    }
+
+    /** return the graph positions of the commits whose message is
+     * TEXT or, if SUBSTRING, contains TEXT, oldest first.
+     * @param text given text.
+     * @param substring whether to match substrings. */
+    static List<Integer> find(String text, boolean substring) {
+        CommitGraph graph = CommitGraph.get();
+        List<Integer> result = new ArrayList<>();
+        for (int i : candidates(graph, text)) {
+            String message = graph.message(i);
+            if (substring ? message.contains(text) : message.equals(text)) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /** return the graph positions of the commits whose message
+     * contains a match of PATTERN, oldest first.
+     * @param pattern given pattern. */
+    static List<Integer> findRegex(Pattern pattern) {
+        CommitGraph graph = CommitGraph.get();
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < graph.size(); i += 1) {
+            if (pattern.matcher(graph.message(i)).find()) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /** return the sorted positions of the commits of GRAPH whose
+     * message may contain TEXT.
+     * @param graph given graph.
+     * @param text given text. */
+    private static int[] candidates(CommitGraph graph, String text) {
+        MessageIndex index = open(graph);
+        int covered = index == null ? 0 : index.count;
+        int[] result = null;
+        if (index != null && text.length() >= GRAM) {
+            for (long key : trigrams(text)) {
+                int[] postings = index.postings(key);
+                result = result == null ? postings
+                        : intersect(result, postings);
+            }
+        }
+        if (result == null) {
+            covered = 0;
+            result = new int[0];
+        }
+        int[] all = Arrays.copyOf(result,
+                result.length + graph.size() - covered);
+        for (int i = covered; i < graph.size(); i += 1) {
+            all[result.length + i - covered] = i;
+        }
+        return all;
+    }
+
+    /** return the postings of KEY.
+     * @param key given key. */
+    private int[] postings(long key) {
+        int lo = 0, hi = keys - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int record = HEADER_SIZE + mid * RECORD_SIZE;
+            int c = Long.compare(index.getLong(record), key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                int[] postings = new int[index.getInt(record + 12)];
+                int offset = index.getInt(record + 8);
+                for (int i = 0; i < postings.length; i += 1) {
+                    postings[i] = index.getInt(offset + 4 * i);
+                }
+                return postings;
+            }
+        }
+        return new int[0];
+    }
+
+    /** return the elements of both sorted arrays A and B.
+     * @param a given array.
+     * @param b given array. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n++] = a[i];
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** return the distinct trigrams of S as keys.
+     * @param s given string. */
+    private static TreeSet<Long> trigrams(String s) {
+        TreeSet<Long> result = new TreeSet<>();
+        for (int i = 0; i + GRAM <= s.length(); i += 1) {
+            result.add(((long) s.charAt(i) << 32)
+                    | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2));
+        }
+        return result;
+    }
+
+    /** write the index of all messages of GRAPH in place of the
+     * existing one.
+     * @param graph given graph. */
+    private static void write(CommitGraph graph) {
+        TreeMap<Long, List<Integer>> postings = new TreeMap<>();
+        for (int i = 0; i < graph.size(); i += 1) {
+            for (long key : trigrams(graph.message(i))) {
+                postings.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            }
+        }
+        ByteBuffer table = ByteBuffer.allocate(HEADER_SIZE
+                + postings.size() * RECORD_SIZE);
+        table.put(MAGIC).putInt(VERSION).putInt(graph.size())
+                .putInt(postings.size());
+        ByteArrayOutputStream lists = new ByteArrayOutputStream();
+        int offset = table.capacity();
+        for (Map.Entry<Long, List<Integer>> e : postings.entrySet()) {
+            List<Integer> positions = e.getValue();
+            table.putLong(e.getKey()).putInt(offset + lists.size())
+                    .putInt(positions.size());
+            ByteBuffer list = ByteBuffer.allocate(4 * positions.size());
+            for (int i : positions) {
+                list.putInt(i);
+            }
+            lists.write(list.array(), 0, list.capacity());
+        }
+        try {
+            File tmp = Files.createTempFile(INDEX.getParentFile().toPath(),
+                    "tmp_", "").toFile();
+            Files.write(tmp.toPath(), table.array());
+            Files.write(tmp.toPath(), lists.toByteArray(),
+                    StandardOpenOption.APPEND);
+            Files.move(tmp.toPath(), INDEX.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package gitlet;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The store of all commits and blobs. An object is either loose,
+ * in its own file under COMMIT_DIR, BLOB_DIR or CHUNK_LIST_DIR, or
+ * packed into a packfile by repack; readers do not need to know
+ * which. A large blob may be stored as a CHUNK_LIST instead, which
+ * lists the blobs holding its content-defined chunks, and is read
+ * back as if it were a single blob.
+ *
+ * Loose commits are sharded by the first two digits of their id,
+ * as COMMIT_DIR/ab/cdef..., so that an abbreviated id is resolved
+ * by listing one shard and binary searching the pack indexes,
+ * rather than by listing every commit. Commits written before
+ * sharding, directly in COMMIT_DIR, are still read.
+ * @author Haoqing Xuan
+ */
+class ObjectStore {
+    /** the kind of commit objects. */
+    static final int COMMIT = 1;
+    /** the kind of blob objects. */
+    static final int BLOB = 2;
+    /** the kind of chunk lists of large blobs. A chunk list holds
+     * the number of chunks, then the 20-byte id and the length of
+     * each chunk. */
+    static final int CHUNK_LIST = 3;
+    /** the directory of loose commits. */
+    static final File COMMIT_DIR = new File(".gitlet/commits");
+    /** the directory of loose chunk lists. */
+    static final File CHUNK_LIST_DIR = new File(".gitlet/chunklists");
+    /** the number of digits of the id that name a shard. */
+    private static final int SHARD_LENGTH = 2;
+    /** the default number of bytes of rebuilt delta blobs to cache. */
+    private static final int DEFAULT_DELTA_CACHE = 32 << 20;
+    /** the contents of recently rebuilt delta blobs and their bases,
+     * least recently used first. Blobs are read on several threads at
+     * once, so it is only used while holding its lock. */
+    private static final LinkedHashMap<String, byte[]> DELTA_CACHE =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** the number of bytes in DELTA_CACHE, guarded by its lock. */
+    private static long deltaCacheSize;
+
+    /** return the directory of loose objects of KIND.
+     * @param kind given kind. */
+    static File looseDir(int kind) {
+        switch (kind) {
+        case COMMIT:
+            return COMMIT_DIR;
+        case CHUNK_LIST:
+            return CHUNK_LIST_DIR;
+        default:
+            return Blobs.BLOB_DIR;
+        }
+    }
+
+    /** return the file of the loose object ID of KIND, which may
+     * not exist.
+     * @param kind given kind.
+     * @param id given id. */
+    static File loose(int kind, String id) {
+        if (kind == COMMIT && id.length() > SHARD_LENGTH) {
+            return Utils.join(looseDir(kind), id.substring(0, SHARD_LENGTH),
+                    id.substring(SHARD_LENGTH));
+        }
+        return Utils.join(looseDir(kind), id);
+    }
+
+    /** return the file of the loose object ID of KIND, wherever it
+     * is stored, or null if it is not loose.
+     * @param kind given kind.
+     * @param id given id. */
+    static File findLoose(int kind, String id) {
+        File file = loose(kind, id);
+        if (file.isFile()) {
+            return file;
+        }
+        file = Utils.join(looseDir(kind), id);
+        return file.isFile() ? file : null;
+    }
+
+    /** return the files of all loose objects of KIND by id.
+     * @param kind given kind. */
+    static SortedMap<String, File> looseObjects(int kind) {
+        TreeMap<String, File> result = new TreeMap<>();
+        File[] files = looseDir(kind).listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (file.isFile() && isID(name, Utils.UID_LENGTH)) {
+                result.put(name, file);
+            } else if (file.isDirectory() && isID(name, SHARD_LENGTH)) {
+                List<String> names = Utils.plainFilenamesIn(file);
+                for (String rest : names == null ? List.<String>of() : names) {
+                    if (isID(name + rest, Utils.UID_LENGTH)) {
+                        result.put(name + rest, Utils.join(file, rest));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** return whether S is a lower-case hexadecimal numeral of
+     * LENGTH digits.
+     * @param s given string.
+     * @param length given length. */
+    private static boolean isID(String s, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i += 1) {
+            if (Character.digit(s.charAt(i), 16) < 0
+                    || Character.isUpperCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** return the ids of the objects of KIND that start with PREFIX,
+     * at most LIMIT of them, in lexicographic order. Only the shards
+     * PREFIX can be in are listed, and packs are binary searched.
+     * @param kind given kind.
+     * @param prefix given prefix.
+     * @param limit given limit. */
+    static SortedSet<String> resolve(int kind, String prefix, int limit) {
+        TreeSet<String> result = new TreeSet<>();
+        prefix = prefix.toLowerCase();
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH
+                || !isID(prefix, prefix.length())) {
+            return result;
+        }
+        if (prefix.length() == Utils.UID_LENGTH) {
+            if (stored(kind, prefix)) {
+                result.add(prefix);
+            }
+            return result;
+        }
+        File[] entries = looseDir(kind).listFiles();
+        for (File entry : entries == null ? new File[0] : entries) {
+            String name = entry.getName();
+            if (entry.isDirectory() && isID(name, SHARD_LENGTH)
+                    && (name.startsWith(prefix) || prefix.startsWith(name))) {
+                resolveShard(entry, prefix, limit, result);
+            } else if (entry.isFile() && name.startsWith(prefix)
+                    && isID(name, Utils.UID_LENGTH)) {
+                result.add(name);
+            }
+        }
+        for (Pack pack : Pack.all()) {
+            result.addAll(pack.findPrefix(kind, prefix, limit));
+        }
+        while (result.size() > limit) {
+            result.remove(result.last());
+        }
+        return result;
+    }
+
+    /** add the ids of at most LIMIT objects in the sorted SHARD that
+     * start with PREFIX to RESULT.
+     * @param shard given shard.
+     * @param prefix given prefix.
+     * @param limit given limit.
+     * @param result given result. */
+    private static void resolveShard(File shard, String prefix, int limit,
+                                     SortedSet<String> result) {
+        List<String> names = Utils.plainFilenamesIn(shard);
+        String dir = shard.getName();
+        String rest = prefix.length() > SHARD_LENGTH
+                ? prefix.substring(SHARD_LENGTH) : "";
+        int i = Collections.binarySearch(names, rest);
+        for (i = i < 0 ? -i - 1 : i; i < names.size() && limit > 0
+                && names.get(i).startsWith(rest); i += 1, limit -= 1) {
+            result.add(dir + names.get(i));
+        }
+    }
+
+    /** return whether the object ID of KIND is stored, counting a
+     * blob stored as a chunk list.
+     * @param kind given kind.
+     * @param id given id. */
+    static boolean contains(int kind, String id) {
+        return stored(kind, id) || kind == BLOB && stored(CHUNK_LIST, id);
+    }
+
+    /** return whether the object ID of KIND is stored.
+     * @param kind given kind.
+     * @param id given id. */
+    private static boolean stored(int kind, String id) {
+        if (findLoose(kind, id) != null) {
+            return true;
+        }
+        for (Pack pack : Pack.all()) {
+            if (pack.find(kind, id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** return a stream of the contents of the object ID of KIND,
+     * inflated if it was stored compressed and joined from its chunks
+     * if it is a chunked blob. The caller must close it. Throws
+     * IllegalArgumentException if there is no such object.
+     * @param kind given kind.
+     * @param id given id. */
+    static InputStream open(int kind, String id) {
+        InputStream in = openStored(kind, id);
+        if (in == null && kind == BLOB) {
+            InputStream chunks = openStored(CHUNK_LIST, id);
+            if (chunks != null) {
+                return joinChunks(chunks);
+            }
+        }
+        if (in == null) {
+            throw new IllegalArgumentException("no such object: " + id);
+        }
+        return in;
+    }
+
+    /** return a stream of the contents of the object ID of KIND, or
+     * null if it is not stored.
+     * @param kind given kind.
+     * @param id given id. */
+    private static InputStream openStored(int kind, String id) {
+        File file = findLoose(kind, id);
+        if (file != null) {
+            return Utils.readObjectContents(file);
+        }
+        try {
+            for (Pack pack : Pack.all()) {
+                int entry = pack.find(kind, id);
+                if (entry >= 0 && pack.isDelta(entry)) {
+                    return new ByteArrayInputStream(undelta(pack, entry, id));
+                } else if (entry >= 0) {
+                    return Utils.readObjectContents(pack.open(entry));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return null;
+    }
+
+    /** return a stream of the chunks listed by the chunk list LIST,
+     * one after another, opening each only when it is reached.
+     * @param list given chunk list. */
+    private static InputStream joinChunks(InputStream list) {
+        List<String> chunks = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(list)) {
+            byte[] chunk = new byte[Utils.UID_LENGTH / 2];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                in.readFully(chunk);
+                in.readInt();
+                chunks.add(Utils.toHex(chunk));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Iterator<String> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return open(BLOB, next.next());
+            }
+        });
+    }
+
+    /** store CONTENTS as the object ID of KIND, unless it is already
+     * stored.
+     * @param kind given kind.
+     * @param id given id.
+     * @param contents given contents. */
+    static void write(int kind, String id, byte[] contents) {
+        if (!stored(kind, id)) {
+            rewrite(kind, id, contents);
+        }
+    }
+
+    /** store CONTENTS as the loose object ID of KIND, replacing any
+     * stored version of it. The object is written to a temporary file
+     * first, so it is never seen half written.
+     * @param kind given kind.
+     * @param id given id.
+     * @param contents given contents. */
+    static void rewrite(int kind, String id, byte[] contents) {
+        File file = loose(kind, id);
+        file.getParentFile().mkdirs();
+        try {
+            Path tmp = Files.createTempFile(file.getParentFile().toPath(),
+                    "tmp_", "");
+            try (OutputStream out = Utils.writeObjectContents(tmp.toFile())) {
+                out.write(contents);
+            }
+            Files.move(tmp, file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** return the contents of the object ID of KIND, or null if it is
+     * longer than LIMIT bytes.
+     * @param kind given kind.
+     * @param id given id.
+     * @param limit given limit. */
+    static byte[] readContents(int kind, String id, int limit) {
+        byte[] cached;
+        synchronized (DELTA_CACHE) {
+            cached = DELTA_CACHE.get(id);
+        }
+        if (cached != null) {
+            return cached.length > limit ? null : cached;
+        }
+        try (InputStream in = open(kind, id)) {
+            byte[] contents = in.readNBytes(limit);
+            return in.read() < 0 ? contents : null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** return the contents of the blob ID stored as the delta ENTRY of
+     * PACK, rebuilding it from its base unless it is cached. Blobs are
+     * rebuilt outside the lock of DELTA_CACHE, so two threads may
+     * both rebuild the same one.
+     * @param pack given pack.
+     * @param entry given entry.
+     * @param id given id. */
+    private static byte[] undelta(Pack pack, int entry, String id)
+            throws IOException {
+        byte[] contents;
+        synchronized (DELTA_CACHE) {
+            contents = DELTA_CACHE.get(id);
+        }
+        if (contents == null) {
+            String baseID = pack.deltaBase(entry);
+            byte[] base = readContents(BLOB, baseID, Integer.MAX_VALUE);
+            cache(baseID, base);
+            contents = Delta.apply(base, pack.delta(entry));
+            cache(id, contents);
+        }
+        return contents;
+    }
+
+    /** add the CONTENTS of blob ID to DELTA_CACHE, evicting the least
+     * recently used blobs beyond pack.deltaCacheSize bytes.
+     * @param id given id.
+     * @param contents given contents. */
+    private static void cache(String id, byte[] contents) {
+        long limit = Config.getInt("pack.deltaCacheSize", DEFAULT_DELTA_CACHE);
+        synchronized (DELTA_CACHE) {
+            if (contents.length > limit || DELTA_CACHE.containsKey(id)) {
+                return;
+            }
+            DELTA_CACHE.put(id, contents);
+            deltaCacheSize += contents.length;
+            Iterator<byte[]> eldest = DELTA_CACHE.values().iterator();
+            while (deltaCacheSize > limit) {
+                deltaCacheSize -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /** empty the cache of rebuilt delta blobs. */
+    static void clearCache() {
+        synchronized (DELTA_CACHE) {
+            DELTA_CACHE.clear();
+            deltaCacheSize = 0;
+        }
+    }
+
+    /** return the ids of all objects of KIND, loose or packed,
+     * in lexicographic order.
+     * @param kind given kind. */
+    static SortedSet<String> list(int kind) {
+        TreeSet<String> result = new TreeSet<>(looseObjects(kind).keySet());
+        for (Pack pack : Pack.all()) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                if (pack.kind(i) == kind) {
+                    result.add(pack.id(i));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,615 @@
+package gitlet;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** A packfile, holding many objects in one file, with its index.
+ * The pack starts with PACK_MAGIC, a version and the number of
+ * objects, followed by the stored bytes of every object. A WHOLE
+ * object is stored exactly as it was written as a loose file; a
+ * DELTA blob is stored as the 20-byte id of its base blob followed
+ * by a compressed Delta that rebuilds it from the base. The index
+ * starts with INDEX_MAGIC, a version and the number of objects,
+ * followed by one ENTRY_SIZE record per object sorted by id and
+ * kind: the 20-byte id, the kind, how it is stored, two bytes of
+ * padding, then the offset and length of the object in the pack.
+ * The index is memory-mapped and searched by binary search, so
+ * finding an object never lists a directory.
+ *
+ * When repacking, the versions of each file are found from the
+ * history of its path, newest first. The newest version is stored
+ * whole and each older one as a delta against the next newer one,
+ * at most pack.depth deltas deep, so recent versions are read with
+ * no or short delta chains.
+ * @author Haoqing Xuan
+ */
+class Pack {
+    /** the directory of all packs. */
+    static final File PACK_DIR = new File(".gitlet/pack");
+    /** the bytes that start a pack. */
+    private static final byte[] PACK_MAGIC = {'G', 'P', 'A', 'K'};
+    /** the bytes that start an index. */
+    private static final byte[] INDEX_MAGIC = {'G', 'I', 'D', 'X'};
+    /** the version of the pack and index formats. */
+    private static final int VERSION = 1;
+    /** the size of the header of a pack or an index. */
+    private static final int HEADER_SIZE = 12;
+    /** the length of an object id in bytes. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+    /** the size of each record of an index. */
+    private static final int ENTRY_SIZE = ID_SIZE + 4 + 8 + 8;
+    /** an entry stored as its loose bytes. */
+    private static final int WHOLE = 0;
+    /** an entry stored as a delta against another blob. */
+    private static final int DELTA = 1;
+    /** the default longest chain of deltas. */
+    private static final int DEFAULT_DEPTH = 50;
+    /** the default size of the largest blob stored as a delta. */
+    private static final int DEFAULT_DELTA_LIMIT = 16 << 20;
+    /** the packs of the repository, null until first used. It is
+     * only set once the list is complete, as objects are read on
+     * several threads at once. */
+    private static volatile List<Pack> packs;
+
+    /** the channel to read objects from the pack. */
+    private final FileChannel pack;
+    /** the mapped index of the pack. */
+    private final MappedByteBuffer index;
+    /** the number of objects in the pack. */
+    private final int size;
+    /** the pack file. */
+    private final File packFile;
+    /** the index file. */
+    private final File indexFile;
+
+    /** open the pack with INDEXFILE as its index.
+     * @param indexFile given index. */
+    private Pack(File indexFile) throws IOException {
+        this.indexFile = indexFile;
+        String name = indexFile.getName();
+        packFile = Utils.join(PACK_DIR,
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel channel = FileChannel.open(indexFile.toPath())) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        byte[] magic = new byte[INDEX_MAGIC.length];
+        index.get(0, magic);
+        if (!Arrays.equals(magic, INDEX_MAGIC)
+                || index.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt pack index %s.", name);
+        }
+        size = index.getInt(8);
+        pack = FileChannel.open(packFile.toPath());
+    }
+
+    /** return all packs of the repository. */
+    static synchronized List<Pack> all() {
+        if (packs == null) {
+            List<Pack> result = new ArrayList<>();
+            List<String> names = Utils.plainFilenamesIn(PACK_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        try {
+                            result.add(new Pack(Utils.join(PACK_DIR, name)));
+                        } catch (IOException excp) {
+                            throw new IllegalArgumentException(
+                                    excp.getMessage());
+                        }
+                    }
+                }
+            }
+            packs = Collections.unmodifiableList(result);
+        }
+        return packs;
+    }
+
+    /** close and forget the packs, so that the next use lists them
+     * again, after another process may have repacked. */
+    static synchronized void reload() {
+        List<Pack> old = packs;
+        packs = null;
+        if (old != null) {
+            try {
+                for (Pack pack : old) {
+                    pack.close();
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** return the number of objects in this pack. */
+    int size() {
+        return size;
+    }
+
+    /** return the position of record I in the index.
+     * @param i given entry. */
+    private int record(int i) {
+        return HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    /** return the id of entry I.
+     * @param i given entry. */
+    String id(int i) {
+        byte[] id = new byte[ID_SIZE];
+        index.get(record(i), id);
+        return Utils.toHex(id);
+    }
+
+    /** return the kind of entry I.
+     * @param i given entry. */
+    int kind(int i) {
+        return index.get(record(i) + ID_SIZE);
+    }
+
+    /** return whether entry I is stored as a delta.
+     * @param i given entry. */
+    boolean isDelta(int i) {
+        return index.get(record(i) + ID_SIZE + 1) == DELTA;
+    }
+
+    /** return the id of the base of the delta entry I.
+     * @param i given entry. */
+    String deltaBase(int i) throws IOException {
+        try (InputStream in = open(i)) {
+            return Utils.toHex(in.readNBytes(ID_SIZE));
+        }
+    }
+
+    /** return the delta of the delta entry I.
+     * @param i given entry. */
+    byte[] delta(int i) throws IOException {
+        InputStream in = open(i);
+        in.skipNBytes(ID_SIZE);
+        try (InputStream delta = Utils.readObjectContents(in)) {
+            return delta.readAllBytes();
+        }
+    }
+
+    /** return the offset of entry I in the pack.
+     * @param i given entry. */
+    long offset(int i) {
+        return index.getLong(record(i) + ID_SIZE + 4);
+    }
+
+    /** return the length of entry I in the pack.
+     * @param i given entry. */
+    long length(int i) {
+        return index.getLong(record(i) + ID_SIZE + 12);
+    }
+
+    /** compare entry I with the object ID of KIND.
+     * @param i given entry.
+     * @param kind given kind.
+     * @param id given id as bytes. */
+    private int compare(int i, int kind, byte[] id) {
+        int pos = record(i);
+        for (int k = 0; k < ID_SIZE; k += 1) {
+            int c = Byte.compareUnsigned(index.get(pos + k), id[k]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(kind(i), kind);
+    }
+
+    /** return the entry of the object ID of KIND in this pack,
+     * or -1 if it is not packed here.
+     * @param kind given kind.
+     * @param id given id. */
+    int find(int kind, String id) {
+        byte[] bytes = Utils.fromHex(id);
+        if (bytes == null || bytes.length != ID_SIZE) {
+            return -1;
+        }
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, kind, bytes);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** return the ids of the objects of KIND in this pack that
+     * start with the hexadecimal PREFIX, at most LIMIT of them. The
+     * first entry at or after PREFIX is found by binary search.
+     * @param kind given kind.
+     * @param prefix given prefix.
+     * @param limit given limit. */
+    List<String> findPrefix(int kind, String prefix, int limit) {
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < Utils.UID_LENGTH) {
+            padded.append('0');
+        }
+        byte[] bytes = Utils.fromHex(padded.toString());
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, 0, bytes) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = lo; i < size && result.size() < limit; i += 1) {
+            String id = id(i);
+            if (!id.startsWith(prefix)) {
+                break;
+            } else if (kind(i) == kind) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** return a stream of the stored bytes of entry I.
+     * @param i given entry. */
+    InputStream open(int i) {
+        return new RegionInputStream(pack, offset(i), length(i));
+    }
+
+    /** copy the stored bytes of entry I to OUT.
+     * @param i given entry.
+     * @param out given channel. */
+    private void copyTo(int i, FileChannel out) throws IOException {
+        long position = offset(i), end = position + length(i);
+        while (position < end) {
+            position += pack.transferTo(position, end - position, out);
+        }
+    }
+
+    /** close this pack. */
+    private void close() throws IOException {
+        pack.close();
+    }
+
+    /** consolidate all loose objects and all existing packs into a
+     * single new pack, with delta chains at most pack.depth long,
+     * then delete the loose objects and the old packs. */
+    static void repack() {
+        repack(Config.getInt("pack.depth", DEFAULT_DEPTH));
+    }
+
+    /** consolidate all loose objects and all existing packs into a
+     * single new pack, with delta chains at most DEPTH long, then
+     * delete the loose objects and the old packs.
+     * @param depth given depth. */
+    static void repack(int depth) {
+        TreeMap<String, Source> objects = new TreeMap<>();
+        for (Pack old : all()) {
+            for (int i = 0; i < old.size(); i += 1) {
+                Source source = new Source(old.id(i), old.kind(i));
+                source.pack = old;
+                source.entry = i;
+                objects.put(source.key(), source);
+            }
+        }
+        List<File> loose = new ArrayList<>();
+        for (int kind : new int[] {ObjectStore.COMMIT, ObjectStore.BLOB,
+                ObjectStore.CHUNK_LIST}) {
+            for (Map.Entry<String, File> e
+                    : ObjectStore.looseObjects(kind).entrySet()) {
+                Source source = new Source(e.getKey(), kind);
+                source.file = e.getValue();
+                objects.put(source.key(), source);
+                loose.add(source.file);
+            }
+        }
+        if (objects.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, String> e : planDeltas(depth).entrySet()) {
+            Source blob = objects.get(e.getKey() + ObjectStore.BLOB);
+            Source base = objects.get(e.getValue() + ObjectStore.BLOB);
+            if (blob != null && base != null) {
+                blob.base = e.getValue();
+            }
+        }
+        try {
+            File written = write(objects.values());
+            for (Pack old : all()) {
+                old.close();
+                if (!old.indexFile.equals(written)) {
+                    old.indexFile.delete();
+                    old.packFile.delete();
+                }
+            }
+            for (File file : loose) {
+                file.delete();
+                File shard = file.getParentFile();
+                if (shard.getParentFile().equals(ObjectStore.COMMIT_DIR)) {
+                    shard.delete();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            reload();
+        }
+    }
+
+    /** write OBJECTS, in order, into a new pack named after a hash
+     * of their ids, and return its index file.
+     * @param objects given objects, sorted by id and kind. */
+    private static File write(Collection<Source> objects)
+            throws IOException {
+        PACK_DIR.mkdir();
+        File tmpPack = Utils.join(PACK_DIR, "tmp_pack");
+        File tmpIndex = Utils.join(PACK_DIR, "tmp_idx");
+        ByteBuffer index =
+                ByteBuffer.allocate(HEADER_SIZE + objects.size() * ENTRY_SIZE);
+        index.put(INDEX_MAGIC).putInt(VERSION).putInt(objects.size());
+        MessageDigest name = Utils.sha1Digest();
+        try (FileChannel out = FileChannel.open(tmpPack.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(PACK_MAGIC).putInt(VERSION).putInt(objects.size());
+            out.write(header.flip());
+            for (Source source : objects) {
+                long offset = out.position();
+                int storage = source.writeTo(out);
+                byte[] id = Utils.fromHex(source.id);
+                name.update(id);
+                index.put(id).put((byte) source.kind).put((byte) storage)
+                        .put(new byte[2]).putLong(offset)
+                        .putLong(out.position() - offset);
+            }
+            out.force(true);
+        }
+        Files.write(tmpIndex.toPath(), index.array());
+        String packName = "pack-" + Utils.toHex(name.digest());
+        File indexFile = Utils.join(PACK_DIR, packName + ".idx");
+        Files.move(tmpPack.toPath(),
+                Utils.join(PACK_DIR, packName + ".pack").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpIndex.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        return indexFile;
+    }
+
+    /** return the base chosen for each blob that is to be stored as a
+     * delta, so that no chain of deltas is longer than DEPTH.
+     * @param depth given depth. */
+    private static Map<String, String> planDeltas(int depth) {
+        Map<String, String> bases = new HashMap<>();
+        Map<String, Integer> depths = new HashMap<>();
+        Set<String> usedAsBase = new HashSet<>();
+        for (List<String> versions : pathHistories().values()) {
+            for (int i = 1; i < versions.size(); i += 1) {
+                String blob = versions.get(i), base = versions.get(i - 1);
+                int chain = depths.getOrDefault(base, 0) + 1;
+                if (chain > depth || bases.containsKey(blob)
+                        || usedAsBase.contains(blob)) {
+                    continue;
+                }
+                bases.put(blob, base);
+                depths.put(blob, chain);
+                usedAsBase.add(base);
+            }
+        }
+        return bases;
+    }
+
+    /** return the distinct blobs each path has had in all commits,
+     * newest first. */
+    private static Map<String, List<String>> pathHistories() {
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : ObjectStore.list(ObjectStore.COMMIT)) {
+            commits.put(id, Commit.load(id));
+        }
+        Map<String, Integer> generations = new HashMap<>();
+        for (String id : commits.keySet()) {
+            ArrayDeque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                if (generations.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                int generation = 1;
+                boolean ready = true;
+                Commit commit = commits.get(top);
+                for (String parent : new String[] {commit.getParentSHA(),
+                        commit.getSecondParentSHA()}) {
+                    if (parent == null || !commits.containsKey(parent)) {
+                        continue;
+                    }
+                    Integer known = generations.get(parent);
+                    if (known == null) {
+                        stack.push(parent);
+                        ready = false;
+                    } else {
+                        generation = Math.max(generation, known + 1);
+                    }
+                }
+                if (ready) {
+                    generations.put(top, generation);
+                    stack.pop();
+                }
+            }
+        }
+        List<String> newestFirst = new ArrayList<>(commits.keySet());
+        newestFirst.sort((a, b) -> generations.get(a).equals(generations.get(b))
+                ? a.compareTo(b)
+                : generations.get(b) - generations.get(a));
+        Map<String, List<String>> histories = new TreeMap<>();
+        for (String id : newestFirst) {
+            for (Map.Entry<String, String> file
+                    : commits.get(id).getBlobs().entrySet()) {
+                List<String> versions = histories.computeIfAbsent(
+                        file.getKey(), k -> new ArrayList<>());
+                if (!versions.contains(file.getValue())) {
+                    versions.add(file.getValue());
+                }
+            }
+        }
+        return histories;
+    }
+
+    /** An object to be written into a new pack, either a loose
+     * file or an entry of an existing pack, and possibly the base it
+     * is to be stored as a delta against. */
+    private static class Source {
+        /** the id of the object. */
+        private final String id;
+        /** the kind of the object. */
+        private final int kind;
+        /** the loose file of the object, or null. */
+        private File file;
+        /** the pack holding the object, or null. */
+        private Pack pack;
+        /** the entry of the object in pack. */
+        private int entry;
+        /** the id of the blob to store this one as a delta of, or null
+         * to store it whole. */
+        private String base;
+
+        /** an object ID of KIND.
+         * @param id given id.
+         * @param kind given kind. */
+        Source(String id, int kind) {
+            this.id = id;
+            this.kind = kind;
+        }
+
+        /** return the key that sorts objects as in an index. */
+        String key() {
+            return id + kind;
+        }
+
+        /** write this object to OUT, as a delta against base if that
+         * is smaller than storing it whole, and return how it was
+         * stored.
+         * @param out given channel. */
+        int writeTo(FileChannel out) throws IOException {
+            byte[] delta = base == null ? null : deltaAgainstBase();
+            if (delta != null) {
+                out.write(ByteBuffer.wrap(delta));
+                return DELTA;
+            }
+            if (file != null) {
+                try (FileChannel in = FileChannel.open(file.toPath())) {
+                    long done = 0, length = in.size();
+                    while (done < length) {
+                        done += in.transferTo(done, length - done, out);
+                    }
+                }
+            } else if (!pack.isDelta(entry)) {
+                pack.copyTo(entry, out);
+            } else {
+                out.write(ByteBuffer.wrap(whole(ObjectStore.readContents(
+                        kind, id, Integer.MAX_VALUE))));
+            }
+            return WHOLE;
+        }
+
+        /** return the stored bytes of this object as a delta against
+         * base, or null if that is not smaller than storing it whole or
+         * either blob is too large to diff. */
+        private byte[] deltaAgainstBase() throws IOException {
+            int limit = Config.getInt("pack.deltaLimit", DEFAULT_DELTA_LIMIT);
+            byte[] target = ObjectStore.readContents(kind, id, limit);
+            byte[] source = ObjectStore.readContents(kind, base, limit);
+            if (target == null || source == null) {
+                return null;
+            }
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            stored.write(Utils.fromHex(base));
+            try (OutputStream delta = Utils.writeObjectContents(stored)) {
+                delta.write(Delta.create(source, target));
+            }
+            long whole;
+            if (file != null) {
+                whole = file.length();
+            } else if (!pack.isDelta(entry)) {
+                whole = pack.length(entry);
+            } else {
+                whole = whole(target).length;
+            }
+            return stored.size() < whole ? stored.toByteArray() : null;
+        }
+
+        /** return CONTENTS as stored in a loose object.
+         * @param contents given contents. */
+        private byte[] whole(byte[] contents) throws IOException {
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            try (OutputStream out = Utils.writeObjectContents(stored)) {
+                out.write(contents);
+            }
+            return stored.toByteArray();
+        }
+    }
+
+    /** An InputStream over a region of a FileChannel. */
+    private static class RegionInputStream extends InputStream {
+        /** the channel read from. */
+        private final FileChannel channel;
+        /** the position of the next byte to read. */
+        private long position;
+        /** the end of the region. */
+        private final long end;
+
+        /** a stream of the LENGTH bytes of CHANNEL at OFFSET.
+         * @param channel given channel.
+         * @param offset given offset.
+         * @param length given length. */
+        RegionInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            len = (int) Math.min(len, end - position);
+            int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+}
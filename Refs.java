@@ -0,0 +1,167 @@
+package gitlet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** The branches of a repository and the branch that is checked out.
+ * Each branch is a small file .gitlet/refs/heads/[name] holding the
+ * id of the commit it points to, and .gitlet/HEAD holds
+ * "ref: refs/heads/[name]" for the current branch. Commands read only
+ * the refs they need and rewrite only the refs they change, each one
+ * by an atomic rename, so their cost does not grow with the number
+ * of commits or branches. A branch name that is not a plain file
+ * name is encoded into one, see file(String).
+ * @author Haoqing Xuan
+ */
+class Refs {
+    /** the directory temporary files are written in. */
+    private static final File GITLET_DIR = new File(".gitlet");
+    /** the file that names the current branch. */
+    static final File HEAD = new File(".gitlet/HEAD");
+    /** the directory of branch files. */
+    static final File HEADS_DIR = new File(".gitlet/refs/heads");
+    /** the prefix of the contents of HEAD. */
+    private static final String REF_PREFIX = "ref: refs/heads/";
+    /** the current branch, null until first read. */
+    private static String current;
+
+    /** return the name of the current branch. */
+    static String currentBranch() {
+        if (current == null) {
+            String ref = read(HEAD);
+            if (ref == null || !ref.startsWith(REF_PREFIX)) {
+                throw Utils.error("Corrupt .gitlet/HEAD.");
+            }
+            current = ref.substring(REF_PREFIX.length());
+        }
+        return current;
+    }
+
+    /** make BRANCH the current branch.
+     * @param branch given branch. */
+    static void setCurrentBranch(String branch) {
+        write(HEAD, REF_PREFIX + branch);
+        current = branch;
+    }
+
+    /** forget the current branch, so that the next use reads HEAD
+     * again, after another process may have changed it. */
+    static void reload() {
+        current = null;
+    }
+
+    /** return the id of the commit the current branch points to. */
+    static String head() {
+        return get(currentBranch());
+    }
+
+    /** return whether BRANCH can name a new branch: it must be a
+     * single path component that is not empty and does not start with
+     * a dot. Branches of older repositories may have any name.
+     * @param branch given branch. */
+    static boolean isValid(String branch) {
+        return !branch.isEmpty() && !branch.startsWith(".")
+                && !branch.contains("/") && !branch.contains("\\")
+                && !branch.contains("..");
+    }
+
+    /** return the file of BRANCH in HEADS_DIR. A "%", "/" or "\\", and
+     * a leading ".", is written as "%" and its two hex digits, and the
+     * empty name as a lone "%", so that every name has a file of its
+     * own that cannot be outside HEADS_DIR.
+     * @param branch given branch. */
+    private static File file(String branch) {
+        if (branch.isEmpty()) {
+            return Utils.join(HEADS_DIR, "%");
+        }
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < branch.length(); i += 1) {
+            char c = branch.charAt(i);
+            if (c == '%' || c == '/' || c == '\\' || (i == 0 && c == '.')) {
+                name.append(String.format("%%%02X", (int) c));
+            } else {
+                name.append(c);
+            }
+        }
+        return Utils.join(HEADS_DIR, name.toString());
+    }
+
+    /** return the branch whose file is named NAME.
+     * @param name given file name. */
+    private static String branch(String name) {
+        StringBuilder branch = new StringBuilder();
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if (c == '%' && i + 2 < name.length()) {
+                branch.append((char) Integer.parseInt(
+                        name.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else if (c != '%') {
+                branch.append(c);
+            }
+        }
+        return branch.toString();
+    }
+
+    /** return the id of the commit BRANCH points to, or null if
+     * there is no such branch.
+     * @param branch given branch. */
+    static String get(String branch) {
+        return read(file(branch));
+    }
+
+    /** point BRANCH, which is created if needed, at COMMITID.
+     * @param branch given branch.
+     * @param commitID given commit id. */
+    static void set(String branch, String commitID) {
+        write(file(branch), commitID);
+    }
+
+    /** delete BRANCH.
+     * @param branch given branch. */
+    static void delete(String branch) {
+        file(branch).delete();
+    }
+
+    /** return the names of all branches in lexicographic order. */
+    static List<String> branches() {
+        List<String> branches = new ArrayList<>();
+        for (String name : Utils.plainFilenamesIn(HEADS_DIR)) {
+            branches.add(branch(name));
+        }
+        Collections.sort(branches);
+        return branches;
+    }
+
+    /** return the first line of FILE, or null if it does not exist.
+     * @param file given file. */
+    private static String read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        return Utils.readContentsAsString(file).trim();
+    }
+
+    /** replace the contents of FILE by the line VALUE, atomically.
+     * @param file given file.
+     * @param value given value. */
+    private static void write(File file, String value) {
+        try {
+            file.getParentFile().mkdirs();
+            File tmp = Files.createTempFile(GITLET_DIR.toPath(), "tmp_", "")
+                    .toFile();
+            Files.write(tmp.toPath(),
+                    (value + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
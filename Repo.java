@@ -1,14 +1,36 @@
 
 package gitlet;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import static gitlet.Utils.*;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Haoqing Xuan
@@ -17,54 +39,106 @@ import java.util.Objects;
 public class Repo implements Serializable {
 
     private static final long serialVersionUID = 1893683620536302203L;
-    /** hashmap store the branches and their commit ids.  */
+    /** the branches and their commit ids, only kept by repos
+     * written to .gitlet/repo before Refs existed. */
     private HashMap<String, String> gitBranches;
-    /** track the current commit id. */
-    private String currentCommit;
-    /** track the current branch name. */
+    /** the current branch name, only kept by repos written
+     * to .gitlet/repo before Refs existed. */
     private String currentBranchName;
-    /** track the current commit id. */
+    /** the current commit id, only kept by repos written
+     * to .gitlet/repo before Refs existed. */
     private String head;
-    /** arraylist that track all commits. */
-    private ArrayList<String> commitHistory;
-    /** the current commit. */
-    private Commit recentCommit;
-    /** the first parent of this commit. */
-    private String firstParentSHA;
-    /** the second parent of this commit. */
-    private String secondParentSHA;
+    /** the stat cache of the working directory, null until used. */
+    private transient Index index;
+    /** the staging area, null until used. */
+    private transient Stage stage;
+    /** whether the stat cache and staging area are only written by
+     * checkpoint, as when a batch runs many commands on this repo. */
+    private transient boolean deferred;
+    /** whether a command wrote to .gitlet since the last checkpoint,
+     * so that the stat cache entries refreshed since may be written
+     * too; read-only commands keep them in memory only. */
+    private transient boolean changed;
 
     /** set up directories for gitlet.  */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** set up directories for gitlet.  */
     private static final File GIT_DIR = new File(CWD, ".gitlet");
     /** set up directories for gitlet.  */
-    private static final File COMMIT_DIR = new File(".gitlet/commits");
+    private static final File COMMIT_DIR = ObjectStore.COMMIT_DIR;
     /** set up directories for gitlet.  */
-    private static final File BLOB_DIR = new File(".gitlet/blobs");
-    /** set up directories for gitlet.  */
-    private static final File BRANCH_DIR = new File(".gitlet/branches");
-    /** set up directories for gitlet.  */
-    private static final File STAGE_DIR = new File(".gitlet/stage");
-    /** set up directories for gitlet.  */
-    private static final File STAGE_ADD = join(STAGE_DIR, "/add");
-    /** set up directories for gitlet.  */
-    private static final File STAGE_RM = join(STAGE_DIR, "/rm");
+    private static final File BLOB_DIR = Blobs.BLOB_DIR;
+    /** the number of commits global-log formats in one task. */
+    private static final int LOG_BATCH = 512;
+    /** the number of batches global-log formats at a time. */
+    private static final int LOG_WINDOW = 16;
+    /** the repo file written before Refs existed. */
+    private static final File LEGACY_REPO = join(GIT_DIR, "/repo");
 
 
+    /** return the stat cache of the working directory. */
+    private Index index() {
+        if (index == null) {
+            index = Index.read();
+        }
+        return index;
+    }
+    /** return the staging area. */
+    private Stage stage() {
+        if (stage == null) {
+            stage = Stage.read();
+        }
+        return stage;
+    }
+    /** write the stat cache and staging area only when checkpoint
+     * is called, instead of after every command. */
+    void deferWrites() {
+        deferred = true;
+    }
+    /** write the stat cache and staging area, if they were read and
+     * changed, the stat cache only if a command wrote to .gitlet. */
+    void checkpoint() {
+        if (index != null && changed) {
+            index.write();
+        }
+        if (stage != null) {
+            stage.write();
+        }
+        changed = false;
+    }
+    /** write the stat cache and staging area after a command that
+     * writes to .gitlet, unless writes are deferred to the next
+     * checkpoint. */
+    private void save() {
+        changed = true;
+        if (!deferred) {
+            checkpoint();
+        }
+    }
     /** search for the current commit stored in the commit directory.
      * @return commit. */
     private Commit searchCommit() {
-        return Utils.readObject(join(COMMIT_DIR, "/", currentCommit),
-                Commit.class);
+        return searchCommit(Refs.head());
     }
-    /** search for the current commit
-     * stored in the commit directory.
+    /** search for the commit with the given ID, whether
+     * it is loose in the commit directory or packed.
      * @param commitID  given ID
      * @return commit. */
     private Commit searchCommit(String commitID) {
-        File commit = new File(".gitlet/commits/" + commitID);
-        return Utils.readObject(commit, Commit.class);
+        return Commit.load(commitID);
+    }
+    /** return the full id of the commit whose id starts with
+     * PREFIX, which must name exactly one commit.
+     * @param prefix given abbreviated id. */
+    public static String resolveCommit(String prefix) {
+        SortedSet<String> ids =
+                ObjectStore.resolve(ObjectStore.COMMIT, prefix, 2);
+        if (ids.isEmpty()) {
+            throw error("No commit with that id exists.");
+        } else if (ids.size() > 1) {
+            throw error("Commit id %s is ambiguous.", prefix);
+        }
+        return ids.first();
     }
 
 
@@ -73,122 +147,107 @@ public class Repo implements Serializable {
      * commit message with no previous commit record.*/
     public void init() {
         if (GIT_DIR.exists()) {
-            System.out.println("A Gitlet version-control system"
+            throw Utils.error("A Gitlet version-control system"
                     + "already exists in the current directory.");
         } else {
             GIT_DIR.mkdir();
             COMMIT_DIR.mkdir();
             BLOB_DIR.mkdir();
-            BRANCH_DIR.mkdir();
-            STAGE_DIR.mkdir();
-            STAGE_ADD.mkdir();
-            STAGE_RM.mkdir();
+            Refs.HEADS_DIR.mkdirs();
 
-            gitBranches = new HashMap<>();
-            commitHistory = new ArrayList<>();
             Commit initialCommit = new Commit("initial commit", null);
-            currentCommit = initialCommit.getCommitSHA();
-            String initID = initialCommit.getCommitSHA();
-            gitBranches.put("master", initID);
-            saveCommit(initialCommit);
-            commitHistory.add(initialCommit.getCommitSHA());
-            currentBranchName = "master";
-            head = initID;
-            recentCommit = initialCommit;
+            initialCommit.save();
+            CommitGraph.rebuild();
+            Refs.set("master", initialCommit.getCommitSHA());
+            Refs.setCurrentBranch("master");
         }
     }
 
-    /** write the commit's id into the commit directory.
+    /** write the commit into the object store and add it
+     * to the commit graph and the message index.
      * @param commit given commit. */
     public void saveCommit(Commit commit) {
-        Utils.writeObject(join(COMMIT_DIR, "/", commit.getCommitSHA()), commit);
-    }
-
-    /** implement the add method, compare the current
-     * blob SHA in commit with the blob SHA
-     * from the previous commit and check whether
-     * the file need to be removed from the
-     * adding stage.
-     * @param filename  given filename. */
-    public void add(String filename) throws IOException {
-        if (new File(filename).exists()) {
-            byte[] contents = Utils.readContents(new File(filename));
-            String contentSHA = Utils.sha1((Object) contents);
-            File filesStage = join(STAGE_ADD, "/", filename);
-            File removal = join(STAGE_RM, "/", filename);
-            Blobs blobs = getCurrentCommit().getBlobs().get(filename);
-            if (removal.exists()) {
-                join(STAGE_RM, "/", filename).delete();
-            } else if (filesStage.exists()) {
-                Blobs previousBlobs = Utils.readObject(filesStage, Blobs.class);
-                if (contentSHA.equals(previousBlobs.getContentID())) {
-                    filesStage.delete();
-                } else {
-                    Blobs blob = new Blobs(new File(filename));
-                    Utils.writeObject(filesStage, blob);
-                }
+        commit.save();
+        CommitGraph.add(commit);
+        MessageIndex.update();
+    }
+
+    /** stage every file named by PATHS, each of which is a file
+     * name, a glob matched against the files of the working
+     * directory, or "." for all of them. The current commit is read
+     * and the stat cache is written once for the whole batch.
+     * @param paths given paths. */
+    public void add(String... paths) throws IOException {
+        SortedSet<String> filenames = expand(paths);
+        Map<String, String> tracked = getCurrentCommit().getBlobs();
+        for (String filename : filenames) {
+            stage(filename, tracked);
+        }
+        save();
+    }
+
+    /** return the names of the files PATHS stand for, exiting if one
+     * of them matches no file.
+     * @param paths given paths. */
+    private static SortedSet<String> expand(String... paths) {
+        SortedSet<String> result = new TreeSet<>();
+        List<String> files = plainFilenamesIn(".");
+        for (String path : paths) {
+            if (path.equals(".")) {
+                result.addAll(files);
+            } else if (new File(path).exists()) {
+                result.add(path);
             } else {
-                if (getCurrentCommit().getBlobs().containsKey(filename)
-                        && blobs.getContentID().equals(contentSHA)) {
-                    join(STAGE_ADD, "/", filename).delete();
-                } else {
-                    Blobs blob = new Blobs(new File(filename));
-                    Utils.writeObject(filesStage, blob);
+                PathMatcher matcher = glob(path);
+                boolean matched = false;
+                for (int i = 0; matcher != null && i < files.size(); i++) {
+                    if (matcher.matches(Paths.get(files.get(i)))) {
+                        result.add(files.get(i));
+                        matched = true;
+                    }
+                }
+                if (!matched) {
+                    throw error("File does not exist.");
                 }
             }
-        } else {
-            System.out.println("File does not exist.");
-            System.exit(0);
         }
+        return result;
     }
 
+    /** return the matcher of the glob PATH, or null if PATH is not a
+     * glob.
+     * @param path given path. */
+    private static PathMatcher glob(String path) {
+        if (path.chars().noneMatch(c -> "*?[{".indexOf(c) >= 0)) {
+            return null;
+        }
+        try {
+            return FileSystems.getDefault().getPathMatcher("glob:" + path);
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
 
-
-
-
+    /** stage FILENAME for addition, unless its blob is the one in
+     * TRACKED, the files of the current commit, in which case it is
+     * unstaged. Either way it is no longer staged for removal.
+     * @param filename given filename.
+     * @param tracked the blob SHAs of the current commit. */
+    private void stage(String filename, Map<String, String> tracked) {
+        String contentSHA = index().store(new File(filename)).getContentID();
+        if (contentSHA.equals(tracked.get(filename))) {
+            stage().unstage(filename);
+        } else {
+            stage().add(filename, contentSHA);
+        }
+    }
 
     /** implement the commit method
      *  consider both addition and removal conditions.
      *  @return commit.
      *  @param message given commit message. */
     public Commit commit(String message) {
-        Commit newCommit = new Commit(message, searchCommit());
-        if (Utils.plainFilenamesIn(STAGE_ADD).isEmpty()
-                && Utils.plainFilenamesIn(STAGE_RM).isEmpty()) {
-            System.out.println("No changes added to the commit.");
-        }
-        for (String filename
-                : Objects.requireNonNull(plainFilenamesIn(STAGE_ADD))) {
-            Blobs blob = Utils.readObject(join(STAGE_ADD, "/",
-                    filename), Blobs.class);
-            newCommit.getBlobs().put(filename, blob);
-        }
-        for (String filename
-                : Objects.requireNonNull(plainFilenamesIn(STAGE_ADD))) {
-            join(STAGE_ADD, "/", filename).delete();
-        }
-        for (String filename
-                : Objects.requireNonNull(plainFilenamesIn(STAGE_RM))) {
-            try {
-                newCommit.getBlobs().remove(filename);
-                join("./", filename).delete();
-            } catch (NullPointerException exception) {
-                String hello;
-            }
-        }
-        for (String filename
-                : Objects.requireNonNull(plainFilenamesIn(STAGE_RM))) {
-            join(STAGE_RM, "/", filename).delete();
-        }
-        currentCommit = newCommit.getCommitSHA();
-        head = newCommit.getCommitSHA();
-        Utils.writeObject(join(COMMIT_DIR, "/",
-                newCommit.getCommitSHA()), newCommit);
-        gitBranches.put(currentBranchName, currentCommit);
-        commitHistory.add(newCommit.getCommitSHA());
-        recentCommit = newCommit;
-        return newCommit;
-
+        return commit(new Commit(message, searchCommit()));
     }
     /** set up the merge commit.
      * @return commit.
@@ -197,238 +256,463 @@ public class Repo implements Serializable {
      * @param secondParentID  second parent id. */
     public Commit mergeCommit(String commitMessage,
                               String firstParentID, String secondParentID) {
-        Commit commit = commit(commitMessage);
+        Commit commit = new Commit(commitMessage,
+                searchCommit(firstParentID));
         commit.setFirstParentSHA(firstParentID);
         commit.setSecondParentSHA(secondParentID);
-        return commit;
+        return commit(commit);
+    }
+    /** apply the staged files to NEWCOMMIT, then save it and move
+     * the current branch to it.
+     * @return commit.
+     * @param newCommit given commit. */
+    private Commit commit(Commit newCommit) {
+        if (stage().isEmpty()) {
+            System.out.println("No changes added to the commit.");
+        }
+        newCommit.getBlobs().putAll(stage().added());
+        for (String filename : stage().removed()) {
+            newCommit.getBlobs().remove(filename);
+            join("./", filename).delete();
+        }
+        stage().clear();
+        save();
+        saveCommit(newCommit);
+        Refs.set(Refs.currentBranch(), newCommit.getCommitSHA());
+        return newCommit;
+
     }
 
 
     /** get the current commit.
      *@return commit.  */
     public Commit getCurrentCommit() {
-        return searchCommit(head);
+        return searchCommit(Refs.head());
     }
     /** print all commit informations. */
     public void log() {
-        Commit currCommit = searchCommit();
-        while (currCommit.getParentSHA() != null) {
-            System.out.println(currCommit);
-            System.out.println();
-            currCommit =
-                    Utils.readObject(join(COMMIT_DIR, "/",
-                                    currCommit.getParentSHA()),
-                            Commit.class);
+        log(0, Integer.MAX_VALUE);
+    }
+    /** print at most COUNT commits of the history of the current
+     * commit, after skipping the first SKIP of them. Only the
+     * commits skipped and printed are visited.
+     * @param skip given number of commits to skip.
+     * @param count given number of commits to print. */
+    public void log(int skip, int count) {
+        int i = CommitGraph.position(Refs.head());
+        CommitGraph graph = CommitGraph.get();
+        for (; skip > 0 && i != CommitGraph.NONE; skip -= 1) {
+            i = graph.parent(i);
+        }
+        for (; count > 0 && i != CommitGraph.NONE; count -= 1) {
+            System.out.println(graph.toString(i));
+            i = graph.parent(i);
+            if (count > 1 && i != CommitGraph.NONE) {
+                System.out.println();
+            }
         }
-        System.out.println(currCommit);
     }
     /** print all commits. */
     public void globalLog() {
-        List<String> commits = Utils.plainFilenamesIn(COMMIT_DIR);
-        assert commits != null;
-        for (String commitSHA : commits) {
-            Commit commit =
-                    Utils.readObject(join(COMMIT_DIR, "/",
-                            commitSHA), Commit.class);
-            System.out.println(commit);
+        globalLog(Integer.MAX_VALUE);
+    }
+    /** print the LIMIT newest commits, newest first. Batches of
+     * LOG_BATCH headers are formatted in parallel, at most
+     * LOG_WINDOW of them at a time, and written in order through
+     * one buffer; printing stops once the output is closed.
+     * @param limit given limit. */
+    public void globalLog(int limit) {
+        CommitGraph graph = CommitGraph.get();
+        int total = Math.min(limit, graph.size());
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Config.threads());
+        ArrayDeque<Future<String>> window = new ArrayDeque<>();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out,
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            for (int next = 0; next < total || !window.isEmpty();) {
+                while (next < total && window.size() < LOG_WINDOW) {
+                    int from = next, to = Math.min(total, next + LOG_BATCH);
+                    window.add(pool.submit(() -> {
+                        StringBuilder batch = new StringBuilder();
+                        for (int k = from; k < to; k += 1) {
+                            batch.append(graph.toString(graph.size() - 1 - k))
+                                    .append('\n');
+                        }
+                        return batch.toString();
+                    }));
+                    next = to;
+                }
+                out.write(window.remove().get());
+                out.flush();
+                if (System.out.checkError()) {
+                    break;
+                }
+            }
+        } catch (IOException | ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
         }
-
     }
     /** checkout the given file.
      * @param filename given filename. */
     public void checkoutFileName(String filename) throws IOException {
-        checkout(currentCommit, filename);
+        checkout(Refs.head(), filename);
     }
     /** checkout the file in the commit.
      * @param filename given filename.
      * @param commitId given commit id. */
     public void checkout(String commitId, String filename) throws IOException {
-        for (String commitSHA
-                : Objects.requireNonNull(plainFilenamesIn(COMMIT_DIR))) {
-            if (commitSHA.startsWith(commitId)) {
-                Commit commit =
-                        Utils.readObject(join(COMMIT_DIR, "/", commitSHA),
-                                Commit.class);
-                if (!commit.getBlobs().containsKey(filename)) {
-                    System.out.println("File does not exist in that commit.");
-                } else {
-                    Utils.writeContents(join("./", filename),
-                            commit.getBlobs().get(filename).getContent());
-                    recentCommit = commit;
-                }
-                return;
-            }
+        Commit commit = searchCommit(resolveCommit(commitId));
+        if (!commit.getBlobs().containsKey(filename)) {
+            System.out.println("File does not exist in that commit.");
+        } else {
+            Blobs blob = Blobs.load(commit.getBlobs().get(filename));
+            blob.writeTo(join("./", filename));
+            index().record(new File(filename), blob.getContentID());
+            save();
         }
-        System.out.println("No commit with that id exists.");
     }
     /** checkout the branch.
      * @param branchName  given branch name. */
     public void checkoutBranch(String branchName) throws IOException {
-        String branchID = gitBranches.get(branchName);
-        if (branchName.equals(currentBranchName)) {
+        String branchID = Refs.get(branchName);
+        if (branchName.equals(Refs.currentBranch())) {
             System.out.println("No need to checkout the current branch.");
             return;
-        } else if (!gitBranches.containsKey(branchName)) {
+        } else if (branchID == null) {
             System.out.println("No such branch exists.");
             return;
         }
 
-        Commit branchCcmmit = searchCommit(branchID);
-        List<String> fileNames = Utils.plainFilenamesIn("./");
-        Map<String, Blobs> branchBlob = branchCcmmit.getBlobs();
-        Map<String, Blobs> currentBlob = getCurrentCommit().getBlobs();
-
-        for (String fileName : fileNames) {
-            if (!currentBlob.containsKey(fileName)
-                    && branchBlob.containsKey(fileName)) {
-                System.out.println("There is an untracked file in the way;"
-                        + "delete it, or add and commit it first.");
-                return;
-            }
-        }
-        for (String fileName : branchBlob.keySet()) {
-            File targetFile = new File("./" + fileName);
-            byte[] contents = branchBlob.get(fileName).getContent();
-            if (!targetFile.exists()) {
-                targetFile.createNewFile();
-            }
-            Utils.writeContents(targetFile, (Object) contents);
-        }
-
-        for (String fileName : currentBlob.keySet()) {
-            if (!branchBlob.containsKey(fileName)
-                    && currentBlob.containsKey(fileName)) {
-                Utils.restrictedDelete(fileName);
-            }
-        }
-
-        for (String fileName : Utils.plainFilenamesIn(STAGE_ADD)) {
-            join(STAGE_ADD, "/", fileName).delete();
-        }
-
-        for (String fileName : Utils.plainFilenamesIn(STAGE_RM)) {
-            join(STAGE_RM, "/", fileName).delete();
+        if (!switchFiles(getCurrentCommit().getBlobs(),
+                searchCommit(branchID).getBlobs())) {
+            return;
         }
+        stage().clear();
+        save();
 
-        recentCommit = branchCcmmit;
-        head = branchID;
-        currentBranchName = branchName;
-        currentCommit = branchID;
+        Refs.setCurrentBranch(branchName);
 
     }
     /** set up the branch.
      * @param branchName  given branch name. */
     public void branch(String branchName) {
-        if (gitBranches.containsKey(branchName)) {
+        if (!Refs.isValid(branchName)) {
+            System.out.println("Invalid branch name.");
+            return;
+        } else if (Refs.get(branchName) != null) {
             System.out.println("A branch with that name already exists.");
+            return;
         }
-        gitBranches.put(branchName, head);
-
-
+        Refs.set(branchName, Refs.head());
     }
     /** remove the branch.
      * @param branchName  given branch name. */
     public void removeBranch(String branchName) {
-        if (!gitBranches.containsKey(branchName)) {
+        if (Refs.get(branchName) == null) {
             System.out.println("A branch with that name does not exist.");
-        } else if (currentBranchName.equals(branchName)) {
+        } else if (Refs.currentBranch().equals(branchName)) {
             System.out.println("Cannot remove the current branch.");
         } else {
-            gitBranches.remove(branchName);
+            Refs.delete(branchName);
         }
     }
     /** reset the directory to the given commit.
      * @param commitID  given commit id. */
     public void reset(String commitID) throws IOException {
-        String commitId = "";
-        for (String id : Objects.requireNonNull(plainFilenamesIn(COMMIT_DIR))) {
-            if (id.startsWith(commitID)) {
-                commitId = id;
-            }
-        }
-        if (commitId.equals("")) {
-            System.out.println("No commit with that id exists.");
+        String commitId = resolveCommit(commitID);
+        if (!switchFiles(getCurrentCommit().getBlobs(),
+                searchCommit(commitId).getBlobs())) {
             return;
         }
-
-        Commit branchCcmmit = searchCommit(commitID);
-        List<String> fileNames = Utils.plainFilenamesIn("./");
-        Map<String, Blobs> branchBlob = branchCcmmit.getBlobs();
-        Map<String, Blobs> currentBlob = getCurrentCommit().getBlobs();
-
-        for (String fileName : fileNames) {
-            if (branchBlob.containsKey(fileName)
-                    && !currentBlob.containsKey(fileName)) {
+        stage().clear();
+        save();
+        Refs.set(Refs.currentBranch(), commitId);
+    }
+    /** make the working directory, which has the files CURRENT of
+     * the current commit, hold the files TARGET of another commit,
+     * and report the number of files touched. Only the files whose
+     * blob differs between CURRENT and TARGET, or whose working copy
+     * differs from TARGET, are written, and the files CURRENT tracks
+     * and TARGET does not are deleted. Return false, touching no
+     * file, if an untracked file would be overwritten.
+     * @param current the blob SHAs of the current commit.
+     * @param target the blob SHAs of the commit checked out. */
+    private boolean switchFiles(Map<String, String> current,
+                                Map<String, String> target) {
+        for (String fileName : plainFilenamesIn("./")) {
+            if (!current.containsKey(fileName)
+                    && target.containsKey(fileName)) {
                 System.out.println("There is an untracked file in the way;"
                         + "delete it, or add and commit it first.");
-                return;
+                return false;
             }
         }
-        for (String fileName : currentBlob.keySet()) {
-            if (!branchBlob.containsKey(fileName)) {
-                Utils.restrictedDelete(fileName);
+        TreeMap<String, String> writes = new TreeMap<>();
+        List<File> unchanged = new ArrayList<>();
+        for (Map.Entry<String, String> file : target.entrySet()) {
+            File working = new File(file.getKey());
+            if (file.getValue().equals(current.get(file.getKey()))
+                    && working.isFile()) {
+                unchanged.add(working);
+            } else {
+                writes.put(file.getKey(), file.getValue());
             }
         }
-        for (String filename : branchBlob.keySet()) {
-            File targetFile = new File("./" + filename);
-            byte[] contents = branchBlob.get(filename).getContent();
-            if (!targetFile.exists()) {
-                targetFile.createNewFile();
+        for (Map.Entry<String, String> file
+                : index().hashAll(unchanged).entrySet()) {
+            if (!file.getValue().equals(target.get(file.getKey()))) {
+                writes.put(file.getKey(), target.get(file.getKey()));
             }
-            Utils.writeContents(targetFile, contents);
         }
-        for (String fileName : Utils.plainFilenamesIn(STAGE_ADD)) {
-            join(STAGE_ADD, "/", fileName).delete();
+        List<String> deletes = new ArrayList<>();
+        for (String fileName : current.keySet()) {
+            if (!target.containsKey(fileName)
+                    && new File(fileName).exists()) {
+                deletes.add(fileName);
+            }
         }
-
-        for (String fileName : Utils.plainFilenamesIn(STAGE_RM)) {
-            join(STAGE_RM, "/", fileName).delete();
+        materialize(writes, deletes);
+        int touched = writes.size() + deletes.size();
+        System.err.println("Updated " + touched
+                + (touched == 1 ? " file." : " files."));
+        return true;
+    }
+    /** delete the files DELETES and write the blobs of WRITES, by
+     * file name, to the working directory, recording them in the
+     * stat cache. The files are written and deleted in parallel, on
+     * core.threads threads; every file that cannot be is printed,
+     * after all others are done, and the command fails.
+     * @param writes the blob SHAs of the files to write.
+     * @param deletes the names of the files to delete. */
+    private void materialize(Map<String, String> writes,
+                             List<String> deletes) {
+        Index cache = index();
+        List<String> files = new ArrayList<>(deletes);
+        files.addAll(writes.keySet());
+        Map<String, String> failed = new ConcurrentSkipListMap<>();
+        Utils.parallelForEach(files, fileName -> {
+            try {
+                String id = writes.get(fileName);
+                if (id == null) {
+                    Utils.restrictedDelete(fileName);
+                } else {
+                    File working = new File(fileName);
+                    Blobs.load(id).writeTo(working);
+                    cache.record(working, id);
+                }
+            } catch (RuntimeException excp) {
+                failed.put(fileName, String.valueOf(excp.getMessage()));
+            }
+        });
+        save();
+        if (!failed.isEmpty()) {
+            for (Map.Entry<String, String> file : failed.entrySet()) {
+                System.out.println("Cannot update " + file.getKey() + ": "
+                        + file.getValue());
+            }
+            throw error("Could not update %d files.", failed.size());
+        }
+    }
+    /** pack all loose commits and blobs into a single packfile. */
+    public void repack() {
+        Pack.repack();
+    }
+    /** rewrite every commit still written by Java serialization in
+     * the Codec format, move loose commits written before sharding
+     * into their shards, repack if any of them were packed, and move
+     * a staging area written before Stage existed into its file. */
+    public void migrate() {
+        int count = 0;
+        for (Map.Entry<String, File> loose
+                : ObjectStore.looseObjects(ObjectStore.COMMIT).entrySet()) {
+            File sharded = ObjectStore.loose(ObjectStore.COMMIT,
+                    loose.getKey());
+            if (!loose.getValue().equals(sharded)) {
+                sharded.getParentFile().mkdir();
+                if (!loose.getValue().renameTo(sharded)) {
+                    throw error("Cannot move %s.", loose.getValue());
+                }
+                count += 1;
+            }
+        }
+        for (String id : ObjectStore.list(ObjectStore.COMMIT)) {
+            if (!Codec.isEncoded(ObjectStore.open(ObjectStore.COMMIT, id))) {
+                ObjectStore.rewrite(ObjectStore.COMMIT, id,
+                        Codec.encode(Codec.COMMIT, searchCommit(id)));
+                count += 1;
+            }
+        }
+        if (Stage.LEGACY_DIR.exists()) {
+            count += stage().added().size() + stage().removed().size();
+            stage().write();
+        }
+        if (count > 0 && !Pack.all().isEmpty()) {
+            Pack.repack();
+        }
+        System.out.println("Migrated " + count + " objects.");
+    }
+    /** return the repo of the current directory, first moving
+     * the branches of a .gitlet/repo file written before Refs
+     * existed into refs, if there is one. */
+    public static Repo open() {
+        if (LEGACY_REPO.exists()) {
+            Repo legacy = Codec.read(LEGACY_REPO, Codec.REPO,
+                    Repo::decode, Repo.class);
+            for (Map.Entry<String, String> branch
+                    : legacy.gitBranches.entrySet()) {
+                Refs.set(branch.getKey(), branch.getValue());
+            }
+            Refs.set(legacy.currentBranchName, legacy.head);
+            Refs.setCurrentBranch(legacy.currentBranchName);
+            LEGACY_REPO.delete();
         }
-        recentCommit = searchCommit(commitID);
-        head = commitID;
+        return new Repo();
+    }
+    /** return the repo read from IN, as written by version 1
+     * of the Codec format before Refs existed.
+     * @param in given input.
+     * @param version the version of the format. */
+    static Repo decode(DataInputStream in, int version) throws IOException {
+        Repo repo = new Repo();
+        repo.gitBranches = new HashMap<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            repo.gitBranches.put(Codec.readString(in), Codec.readString(in));
+        }
+        Codec.readString(in);
+        repo.currentBranchName = Codec.readString(in);
+        repo.head = Codec.readString(in);
+        return repo;
     }
     /** remove a certain file.
      * @param fileName  given filename. */
     public void remove(String fileName) {
-        File filesRemove = join(STAGE_RM, "/", fileName);
-        Map<String, Blobs> blobs = getCurrentCommit().getBlobs();
-        if (Utils.plainFilenamesIn(STAGE_ADD).contains(fileName)) {
-            join(STAGE_ADD, "/", fileName).delete();
+        Map<String, String> blobs = getCurrentCommit().getBlobs();
+        if (stage().added().containsKey(fileName)) {
+            stage().unstage(fileName);
         } else if (blobs.containsKey(fileName)) {
-            if (!Utils.plainFilenamesIn(STAGE_RM).contains(fileName)
-                    || !new File(fileName).exists()) {
-                Utils.writeContents(filesRemove, "delete");
-            }
+            stage().remove(fileName);
             join("./", fileName).delete();
-        } else if (!Utils.plainFilenamesIn(STAGE_ADD).contains(fileName)) {
+        } else {
             System.out.println("No reason to remove the file.");
             return;
         }
+        save();
     }
-    /** find the commit id from branchname.
+    /** print the ids of the commits whose message is MESSAGE.
      * @param message given commit message. */
     public void find(String message) {
-        ArrayList<String> goodCommits = new ArrayList<>();
-        for (String commitID : commitHistory) {
-            if (searchCommit(commitID).getCommitMessage().equals(message)) {
-                goodCommits.add(commitID);
+        printFound(MessageIndex.find(message, false));
+    }
+    /** print the ids of the commits whose message contains TEXT.
+     * @param text given text. */
+    public void findSubstring(String text) {
+        printFound(MessageIndex.find(text, true));
+    }
+    /** print the ids of the commits whose message contains a
+     * match of the regular expression REGEX.
+     * @param regex given regular expression. */
+    public void findRegex(String regex) {
+        try {
+            printFound(MessageIndex.findRegex(Pattern.compile(regex)));
+        } catch (PatternSyntaxException excp) {
+            throw error("Invalid regular expression: %s",
+                    excp.getDescription());
+        }
+    }
+    /** print the ids of the commits at POSITIONS of the commit graph.
+     * @param positions given positions. */
+    private void printFound(List<Integer> positions) {
+        if (positions.isEmpty()) {
+            System.out.println("Found no commit with that message.");
+        }
+        CommitGraph graph = CommitGraph.get();
+        for (int i : positions) {
+            System.out.println(graph.id(i));
+        }
+    }
+    /** print the unified diff of every file that differs between
+     * two versions: the working directory against HEAD if COMMITIDS
+     * is empty, HEAD against the commit if it names one, and else the
+     * second commit it names against the first. HEAD may be named as
+     * a commit too. Files whose blob SHAs are equal are skipped
+     * without being read, and the diff of each file is written out as
+     * soon as it is computed.
+     * @param histogram whether to use histogram diff.
+     * @param commitIDs given commit ids. */
+    public void diff(boolean histogram, String... commitIDs) {
+        Map<String, String> from = commitIDs.length == 0
+                ? getCurrentCommit().getBlobs()
+                : searchCommit(revision(commitIDs[0])).getBlobs();
+        Map<String, String> to = commitIDs.length == 0
+                ? working(getCurrentCommit().getBlobs())
+                : searchCommit(commitIDs.length == 1 ? Refs.head()
+                : revision(commitIDs[1])).getBlobs();
+        SortedSet<String> names = new TreeSet<>(from.keySet());
+        names.addAll(to.keySet());
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out,
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            for (String name : names) {
+                String a = from.get(name), b = to.get(name);
+                if (Objects.equals(a, b)) {
+                    continue;
+                }
+                Diff.write(out, name, content(a, null),
+                        content(b, commitIDs.length == 0 ? name : null),
+                        histogram);
+                out.flush();
+                if (System.out.checkError()) {
+                    break;
+                }
             }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        if (!goodCommits.isEmpty()) {
-            for (String commitID : goodCommits) {
-                System.out.println(commitID);
+    }
+    /** return the full id of the commit NAME, which is HEAD or an
+     * abbreviated commit id.
+     * @param name given revision. */
+    private static String revision(String name) {
+        return name.equals("HEAD") ? Refs.head() : resolveCommit(name);
+    }
+    /** return the blob SHAs of the files of the working directory
+     * that are tracked by TRACKED, the files of the current commit,
+     * or staged for addition, and have not been removed.
+     * @param tracked the blob SHAs of the current commit. */
+    private Map<String, String> working(Map<String, String> tracked) {
+        List<File> files = new ArrayList<>();
+        for (String name : plainFilenamesIn("./")) {
+            if (tracked.containsKey(name)
+                    || stage().added().containsKey(name)) {
+                files.add(new File(name));
             }
-        } else {
-            System.out.println("Found no commit with that message.");
         }
+        return index().hashAll(files);
+    }
+    /** return the contents of the blob ID, or of the working file
+     * NAME instead if it is not null, or null if ID is null.
+     * @param id given blob SHA.
+     * @param name given working file name. */
+    private static byte[] content(String id, String name) {
+        if (id == null) {
+            return null;
+        } else if (name != null) {
+            return readContents(new File(name));
+        }
+        return Blobs.load(id).getContent();
     }
     /** print out information of each class. */
     public void status() {
 
 
         printTitle("Branches");
-        for (String branchname : gitBranches.keySet()) {
-            if (currentBranchName.equals(branchname)) {
+        for (String branchname : Refs.branches()) {
+            if (Refs.currentBranch().equals(branchname)) {
                 System.out.println("*" + branchname);
             } else {
                 System.out.println(branchname);
@@ -438,24 +722,23 @@ public class Repo implements Serializable {
 
 
         printTitle("Staged Files");
-        for (String stagedfiles
-                : Objects.requireNonNull(plainFilenamesIn(STAGE_ADD))) {
+        for (String stagedfiles : stage().added().keySet()) {
             System.out.println(stagedfiles);
         }
         System.out.println();
 
 
         printTitle("Removed Files");
-        for (String removingFiles
-                : Objects.requireNonNull(plainFilenamesIn(STAGE_RM))) {
+        for (String removingFiles : stage().removed()) {
             System.out.println(removingFiles);
         }
         System.out.println();
 
 
         printTitle("Modifications Not Staged For Commit");
-        for (String fileName : modifiedHelper().keySet()) {
-            System.out.println(fileName + " " + modifiedHelper().get(fileName));
+        Map<String, String> modified = modifiedHelper();
+        for (String fileName : modified.keySet()) {
+            System.out.println(fileName + " " + modified.get(fileName));
         }
         System.out.println();
 
@@ -464,29 +747,29 @@ public class Repo implements Serializable {
             System.out.println(fileName);
         }
     }
-    /** track modified files.
-     * @return hashmap of modified files. */
-    public HashMap<String, String> modifiedHelper() {
+    /** track modified files, hashing the tracked files that may
+     * have changed in parallel.
+     * @return modified files in name order. */
+    public Map<String, String> modifiedHelper() {
         Commit commit = getCurrentCommit();
-        Map<String, Blobs> blobs = commit.getBlobs();
+        Map<String, String> blobs = commit.getBlobs();
         List<String> fileNames = Utils.plainFilenamesIn(new File("./"));
-        List<String> removingList = Utils.plainFilenamesIn(STAGE_RM);
-        HashMap<String, String> result = new HashMap<>();
-        if (!fileNames.isEmpty()) {
-            for (String name : fileNames) {
-                String fileSHA =
-                        Utils.sha1(Utils.readContents(new File("./" + name)));
-                if (blobs.keySet().contains(name)) {
-                    if (!blobs.get(name).getContentID().equals(fileSHA)) {
-                        result.put(name, "(modified)");
-                    }
-                }
+        TreeMap<String, String> result = new TreeMap<>();
+        List<File> tracked = new ArrayList<>();
+        for (String name : fileNames) {
+            if (blobs.containsKey(name)) {
+                tracked.add(new File(name));
+            }
+        }
+        for (Map.Entry<String, String> file
+                : index().hashAll(tracked).entrySet()) {
+            if (!blobs.get(file.getKey()).equals(file.getValue())) {
+                result.put(file.getKey(), "(modified)");
             }
         }
         for (String filename : blobs.keySet()) {
             if (!fileNames.contains(filename)) {
-                assert removingList != null;
-                if (!removingList.contains(filename)) {
+                if (!stage().removed().contains(filename)) {
                     result.put(filename, "(deleted)");
                 }
             }
@@ -497,16 +780,14 @@ public class Repo implements Serializable {
      * @return arraylist of untrack files. */
     public ArrayList<String> untracked() {
         Commit commit = getCurrentCommit();
-        Map<String, Blobs> blobs = commit.getBlobs();
-        List<String> addingList = Utils.plainFilenamesIn(STAGE_ADD);
+        Map<String, String> blobs = commit.getBlobs();
         List<String> fileNames =
                 Utils.plainFilenamesIn("./");
         ArrayList<String> result = new ArrayList<>();
         if (!fileNames.isEmpty()) {
             for (String filename : fileNames) {
                 if (!blobs.keySet().contains(filename)) {
-                    assert addingList != null;
-                    if (!addingList.contains(filename)) {
+                    if (!stage().added().containsKey(filename)) {
                         result.add(filename);
                     }
                 }
@@ -519,203 +800,188 @@ public class Repo implements Serializable {
     public void printTitle(String statusName) {
         System.out.println("=== " + statusName + " ===");
     }
-    /**
-     public void merge(String branchName) throws IOException {
-     List<String> untracked = untracked();
-     HashMap<String, String> modified = modifiedHelper();
-     Set<String> allFiles = new HashSet<>();
-     String branchB, currentB, splitB;
-     Boolean encounterConflict = false;
-
-
-     if (!Utils.plainFilenamesIn(STAGE_ADD).isEmpty()
-     && !Utils.plainFilenamesIn(STAGE_RM).isEmpty()) {
-     System.out.println("You have uncommitted changes.");
-     return;
-     }
-     if (!gitBranches.containsKey(branchName)) {
-     System.out.println("A branch with that name does not exist.");
-     return;
-     }
-     if (currentBranchName.equals(branchName)) {
-     System.out.println("Cannot merge a branch with itself.");
-     return;
-     }
-     if (!untracked.isEmpty() && !modified.isEmpty()) {
-     System.out.println("There is an untracked file in the way;
-     delete it, or add and commit it first.");
-     return;
-     }
-
-     Commit branchCommit = searchCommit(gitBranches.get(branchName));
-     Commit currentCommit = getCurrentCommit();
-     Commit splitCommit =
-     searchCommit(getSplitIDHelper(branchCommit.getCommitSHA(),
-     currentCommit.getCommitSHA()));
-
-     if (splitCommit.getCommitSHA().equals(branchCommit.getCommitSHA())) {
-     System.out.println("Given branch is an
-     ancestor of the current branch.");
-     return;
-     }
-
-     if (splitCommit.getCommitSHA().equals(currentCommit.getCommitSHA())) {
-     checkoutBranch(branchName);
-     System.out.println("Current branch fast-forwarded.");
-     }
-
-     Map<String, Blobs> branchBlob = branchCommit.getBlobs();
-     Map<String, Blobs> currentBlob = currentCommit.getBlobs();
-     Map<String, Blobs> splitBlob = splitCommit.getBlobs();
-
-     allFiles.addAll(branchBlob.keySet());
-     allFiles.addAll(currentBlob.keySet());
-     allFiles.addAll(splitBlob.keySet());
-
-     for (String filename : allFiles) {
-     branchB = branchBlob.get(filename).getContentID();
-     currentB = currentBlob.get(filename).getContentID();
-     splitB = splitBlob.get(filename).getContentID();
-
-     if (branchB != null && currentB != null && splitB != null) {
-     if (!branchB.equals(splitB) && currentB.equals(splitB)) {
-     checkout(branchCommit.getCommitSHA(), filename);
-     add(filename);
-     } else if (!currentB.equals(splitB)
-     && branchB.equals(splitB)) {
-     String hello;
-     } else if (currentB.equals(splitB)
-     && branchB.equals(currentB)) {
-     String hello;
-     } else if (!currentB.equals(splitB)
-     && !branchB.equals(splitB)) {
-     conflictHelper(filename, branchB, currentB);
-     encounterConflict = true;
-     }
-     } else if (branchB == null && currentB != null && splitB != null) {
-     if (currentB.equals(splitB)) {
-     remove(filename);
-     } else if (!currentB.equals(splitB)) {
-     conflictHelper(filename, null, currentB);
-     encounterConflict = true;
-     }
-     } else if (branchB != null && currentB == null && splitB != null) {
-     if (branchB.equals(splitB)) {
-     String hello;
-     } else if (!branchB.equals(splitB)) {
-     conflictHelper(filename, branchB, null);
-     encounterConflict = true;
-     }
-     } else if (branchB != null && currentB != null && splitB == null) {
-     if (branchB.equals(currentB)) {
-     String hello;
-     } else if (!branchB.equals(currentB)) {
-     conflictHelper(filename, branchB, currentB);
-     encounterConflict = true;
-     }
-     } else if (branchB == null && currentB != null && splitB == null) {
-     String hello;
-     } else if (branchB != null && currentB == null && splitB == null) {
-     checkout(branchCommit.getCommitSHA(), filename);
-     add(filename);
-     } else if (branchB == null && currentB == null && splitB != null) {
-     String hello;
-     }
-     }
-     logHelper(branchName, encounterConflict);
-
-
-
-
-     }
-
-     public ArrayList<String> parentCommitsHelper(String commitID) {
-     assert commitID != null;
-     ArrayList<String> parentCommits = new ArrayList<>();
-     ArrayList<String> temp = new ArrayList<>();
-     Commit currentCommit =
-     Utils.readObject(new File("./.gitlet/Commits/" + commitID),
-     Commit.class);
-     if (currentCommit == null) {
-     return parentCommits;
-     }
-
-     if (currentCommit.isMerged()) {
-     temp = parentCommitsHelper(currentCommit.getSecondParentSHA());
-     }
-     ArrayList<String> temp1 =
-     parentCommitsHelper(currentCommit.getParent());
-     parentCommits.add(commitID);
-     parentCommits.addAll(temp1);
-     if (!temp.isEmpty()) {
-     parentCommits.addAll(temp);
-     }
-     return parentCommits;
-     }
-
-     public String getSplitIDHelper(String ID1, String ID2) {
-     ArrayList<String> ancestors = parentCommitsHelper(ID1);
-     ArrayList<String> secondIDTree = new ArrayList<>();
-     ArrayList<String> splits = new ArrayList<>();
-     String commitID;
-     secondIDTree.add(ID2);
-
-     while (!secondIDTree.isEmpty()) {
-     commitID = secondIDTree.get(0);
-     secondIDTree.remove(0);
-     Commit commit =
-     Utils.readObject(new File("./.gitlet/Commits/" + commitID),
-     Commit.class);
-     if (ancestors.contains(commit.getCommitSHA())) {
-     return commit.getCommitSHA();
-     }
-     if (!splits.contains(commit.getCommitSHA())) {
-     secondIDTree.add(commit.getParent());
-     if (commit.isMerged()) {
-     secondIDTree.add(commit.getSecondParentSHA());
-     }
-     splits.add(commitID);
-     }
-     }
-     return null;
-
-
-     }
-
-
-
-     public void conflictHelper(String filename,
-     String branchB, String currentB) throws IOException {
-     File branchFile = new File("./.gitlet/Blobs/" + branchB);
-     File currentFile = new File("./.gitlet/Blobs/" + currentB);
-     String branchcontent = "", currentcontent = "";
-     if (branchFile.exists()) {
-     branchcontent = Utils.readContentsAsString(branchFile);
-     }
-     if (currentFile.exists()) {
-     currentcontent = Utils.readContentsAsString(currentFile);
-     }
-     Utils.writeContents(new File(filename),
-     "<<<<<<< HEAD\n" + currentcontent
-     + "=======\n" + branchcontent + ">>>>>>>\n");
-     add(filename);
-     }
-
-     public void logHelper(String givenBranch, Boolean encounterConflict) {
-     String message = "Merged " + givenBranch + " into "
-     + currentBranchName + ".";
-     Commit mergeCommit =
-     mergeCommit(message, getCurrentCommit().getCommitSHA(),
-     gitBranches.get(givenBranch));
-     String mergeID = Utils.sha1(Utils.serialize(mergeCommit));
-     commitHistory.add(mergeID);
-     Utils.writeObject(join("./.gitlet/commits", "/", mergeID), mergeCommit);
-     head = mergeID;
-     gitBranches.put(currentBranchName, mergeID);
-     if (encounterConflict) {
-     System.out.println("Encountered a merge conflict.");
-     }
-     } */
+    /** the ways a file can be merged. */
+    private enum Outcome {
+        /** the current version is kept. */
+        KEEP,
+        /** the version of the given branch is checked out. */
+        TAKE,
+        /** the file is removed. */
+        DELETE,
+        /** both versions are merged line by line. */
+        MERGE
+    }
+    /** merge the branch BRANCHNAME into the current branch. The split
+     * point is the merge base the commit graph finds, and each file
+     * changed since the split point on only one side takes that
+     * side's version, while the versions of a file changed
+     * differently on both sides are merged line by line, with the
+     * regions both changed left between conflict markers. Files are
+     * merged in parallel, on core.threads threads, and staged together
+     * once all are done; a file that cannot be merged is printed after
+     * the others, in name order, and the merge fails.
+     * @param branchName given branch name. */
+    public void merge(String branchName) throws IOException {
+        String givenID = Refs.get(branchName);
+        if (!stage().isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return;
+        } else if (givenID == null) {
+            System.out.println("A branch with that name does not exist.");
+            return;
+        } else if (branchName.equals(Refs.currentBranch())) {
+            System.out.println("Cannot merge a branch with itself.");
+            return;
+        }
+        int current = CommitGraph.position(Refs.head());
+        int given = CommitGraph.position(givenID);
+        CommitGraph graph = CommitGraph.get();
+        int split = graph.mergeBase(current, given);
+        if (split == given) {
+            System.out.println("Given branch is an ancestor of the "
+                    + "current branch.");
+            return;
+        } else if (split == current) {
+            reset(givenID);
+            System.out.println("Current branch fast-forwarded.");
+            return;
+        }
+        Map<String, String> splitBlob = split == CommitGraph.NONE
+                ? new HashMap<>() : searchCommit(graph.id(split)).getBlobs();
+        Map<String, String> currentBlob = getCurrentCommit().getBlobs();
+        Map<String, String> givenBlob = searchCommit(givenID).getBlobs();
+        SortedSet<String> allFiles = new TreeSet<>(splitBlob.keySet());
+        allFiles.addAll(currentBlob.keySet());
+        allFiles.addAll(givenBlob.keySet());
+        Map<String, Outcome> outcomes = new TreeMap<>();
+        for (String fileName : allFiles) {
+            Outcome outcome = outcome(splitBlob.get(fileName),
+                    currentBlob.get(fileName), givenBlob.get(fileName));
+            if (outcome != Outcome.KEEP) {
+                outcomes.put(fileName, outcome);
+            }
+        }
+        for (String fileName : outcomes.keySet()) {
+            if (!currentBlob.containsKey(fileName)
+                    && new File(fileName).exists()) {
+                System.out.println("There is an untracked file in the way;"
+                        + "delete it, or add and commit it first.");
+                return;
+            }
+        }
+        Map<String, String> added = new ConcurrentSkipListMap<>();
+        Set<String> removed = new ConcurrentSkipListSet<>();
+        Set<String> conflicts = new ConcurrentSkipListSet<>();
+        Map<String, String> failed = new ConcurrentSkipListMap<>();
+        Index cache = index();
+        Utils.parallelForEach(outcomes.keySet(), fileName -> {
+            File working = new File(fileName);
+            String id;
+            try {
+                switch (outcomes.get(fileName)) {
+                case TAKE:
+                    id = givenBlob.get(fileName);
+                    Blobs.load(id).writeTo(working);
+                    cache.record(working, id);
+                    added.put(fileName, id);
+                    break;
+                case DELETE:
+                    Utils.restrictedDelete(working);
+                    removed.add(fileName);
+                    break;
+                default:
+                    if (!writeMerged(working, splitBlob.get(fileName),
+                            currentBlob.get(fileName),
+                            givenBlob.get(fileName))) {
+                        conflicts.add(fileName);
+                    }
+                    id = Blobs.store(working).getContentID();
+                    cache.record(working, id);
+                    added.put(fileName, id);
+                }
+            } catch (RuntimeException excp) {
+                failed.put(fileName, String.valueOf(excp.getMessage()));
+            }
+        });
+        if (!failed.isEmpty()) {
+            save();
+            for (Map.Entry<String, String> file : failed.entrySet()) {
+                System.out.println("Cannot merge " + file.getKey() + ": "
+                        + file.getValue());
+            }
+            throw error("Could not merge %d files.", failed.size());
+        }
+        for (Map.Entry<String, String> file : added.entrySet()) {
+            stage().add(file.getKey(), file.getValue());
+        }
+        for (String fileName : removed) {
+            stage().remove(fileName);
+        }
+        save();
+        mergeCommit("Merged " + branchName + " into "
+                + Refs.currentBranch() + ".", Refs.head(), givenID);
+        if (!conflicts.isEmpty()) {
+            System.out.println("Encountered a merge conflict.");
+        }
+    }
+    /** return how a file whose blob is SPLIT at the split point,
+     * CURRENT in the current commit and GIVEN in the given one, any
+     * of which is null if the file is absent, is merged.
+     * @param split the blob SHA at the split point.
+     * @param current the blob SHA in the current commit.
+     * @param given the blob SHA in the given commit. */
+    private static Outcome outcome(String split, String current,
+                                   String given) {
+        if (Objects.equals(current, given) || Objects.equals(given, split)) {
+            return Outcome.KEEP;
+        } else if (Objects.equals(current, split)) {
+            return given == null ? Outcome.DELETE : Outcome.TAKE;
+        }
+        return Outcome.MERGE;
+    }
+    /** write to FILE the three-way merge of the blobs CURRENT and
+     * GIVEN, changed from SPLIT, any of which is null for an absent
+     * file, and return whether it has no conflict. Binary contents
+     * are not merged: both versions are written whole between
+     * conflict markers.
+     * @param file given file.
+     * @param split the blob SHA at the split point.
+     * @param current the blob SHA in the current commit.
+     * @param given the blob SHA in the given commit. */
+    private static boolean writeMerged(File file, String split,
+                                       String current, String given) {
+        byte[][] contents = new byte[3][];
+        String[] ids = {split, current, given};
+        for (int k = 0; k < ids.length; k += 1) {
+            contents[k] = ids[k] == null ? new byte[0]
+                    : Blobs.load(ids[k]).getContent();
+        }
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        boolean clean = false;
+        if (Diff.isBinary(contents[0]) || Diff.isBinary(contents[1])
+                || Diff.isBinary(contents[2])) {
+            merged.writeBytes(utf8("<<<<<<< HEAD\n"));
+            merged.writeBytes(contents[1]);
+            merged.writeBytes(utf8("=======\n"));
+            merged.writeBytes(contents[2]);
+            merged.writeBytes(utf8(">>>>>>>\n"));
+        } else {
+            List<String> lines = new ArrayList<>();
+            clean = Diff.merge(Diff.lines(contents[0]),
+                    Diff.lines(contents[1]), Diff.lines(contents[2]),
+                    lines);
+            for (String line : lines) {
+                merged.writeBytes(utf8(line));
+            }
+        }
+        writeContents(file, (Object) merged.toByteArray());
+        return clean;
+    }
+    /** return S encoded as UTF-8.
+     * @param s given string. */
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
 
 
 
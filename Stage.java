@@ -0,0 +1,198 @@
+package gitlet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The staging area of a repository, kept in the single file STAGE.
+ * STAGE starts with MAGIC, a version and the number of entries,
+ * followed by one entry per staged file sorted by name: the name, a
+ * flag byte, ADDED or REMOVED, and for an added file the id of its
+ * blob, which add has already written to the object store. Commands
+ * read STAGE once and work on the staged files in memory.
+ *
+ * Before STAGE existed, each staged blob was recorded in a file of
+ * LEGACY_ADD and each removal by a file of LEGACY_RM. When STAGE is
+ * absent these are read instead, and they are deleted once STAGE is
+ * written.
+ * @author Haoqing Xuan
+ */
+class Stage {
+    /** the staging file. */
+    static final File STAGE = new File(".gitlet/staging");
+    /** the directory of the staging area before STAGE existed. */
+    static final File LEGACY_DIR = new File(".gitlet/stage");
+    /** the directory of files staged for addition before STAGE
+     * existed. */
+    private static final File LEGACY_ADD = Utils.join(LEGACY_DIR, "add");
+    /** the directory of files staged for removal before STAGE
+     * existed. */
+    private static final File LEGACY_RM = Utils.join(LEGACY_DIR, "rm");
+    /** the bytes that start STAGE. */
+    private static final byte[] MAGIC = {'G', 'S', 'T', 'G'};
+    /** the version of the staging format. */
+    private static final int VERSION = 1;
+    /** the flag of a file staged for addition. */
+    private static final int ADDED = 1;
+    /** the flag of a file staged for removal. */
+    private static final int REMOVED = 2;
+
+    /** the blob ids of the files staged for addition by name. */
+    private final TreeMap<String, String> added = new TreeMap<>();
+    /** the names of the files staged for removal. */
+    private final TreeSet<String> removed = new TreeSet<>();
+    /** whether the staged files changed since they were read. */
+    private boolean dirty;
+
+    /** return the staging area of the repository. */
+    static Stage read() {
+        Stage stage = new Stage();
+        if (!STAGE.isFile()) {
+            stage.readLegacy();
+            return stage;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(
+                        STAGE.toPath())))) {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt staging area.");
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = Codec.readString(in);
+                switch (in.readUnsignedByte()) {
+                case ADDED:
+                    stage.added.put(name, Codec.readID(in));
+                    break;
+                case REMOVED:
+                    stage.removed.add(name);
+                    break;
+                default:
+                    throw Utils.error("Corrupt staging area.");
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return stage;
+    }
+
+    /** read the files of LEGACY_ADD and LEGACY_RM, if there are any,
+     * so that the next write replaces them by STAGE. */
+    private void readLegacy() {
+        if (!LEGACY_DIR.isDirectory()) {
+            return;
+        }
+        for (String name : names(LEGACY_ADD)) {
+            added.put(name, Blobs.read(Utils.join(LEGACY_ADD, name))
+                    .getContentID());
+        }
+        removed.addAll(names(LEGACY_RM));
+        dirty = true;
+    }
+
+    /** return the names of the plain files in DIR, none if it does
+     * not exist.
+     * @param dir given directory. */
+    private static List<String> names(File dir) {
+        List<String> result = Utils.plainFilenamesIn(dir);
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /** return the blob ids of the files staged for addition by
+     * name. */
+    SortedMap<String, String> added() {
+        return Collections.unmodifiableSortedMap(added);
+    }
+
+    /** return the names of the files staged for removal. */
+    SortedSet<String> removed() {
+        return Collections.unmodifiableSortedSet(removed);
+    }
+
+    /** return whether no file is staged. */
+    boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    /** stage NAME for addition with the blob ID.
+     * @param name given file name.
+     * @param id given blob id. */
+    void add(String name, String id) {
+        dirty |= removed.remove(name);
+        dirty |= !id.equals(added.put(name, id));
+    }
+
+    /** stage NAME for removal.
+     * @param name given file name. */
+    void remove(String name) {
+        dirty |= added.remove(name) != null;
+        dirty |= removed.add(name);
+    }
+
+    /** unstage NAME.
+     * @param name given file name. */
+    void unstage(String name) {
+        dirty |= added.remove(name) != null;
+        dirty |= removed.remove(name);
+    }
+
+    /** unstage every file. */
+    void clear() {
+        dirty |= !isEmpty();
+        added.clear();
+        removed.clear();
+    }
+
+    /** write the staging area, if it changed, then delete the staging
+     * directories written before STAGE existed. */
+    void write() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            File tmp = Files.createTempFile(STAGE.getParentFile().toPath(),
+                    "tmp_", "").toFile();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            tmp.toPath())))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(added.size() + removed.size());
+                TreeSet<String> names = new TreeSet<>(added.keySet());
+                names.addAll(removed);
+                for (String name : names) {
+                    Codec.writeString(out, name);
+                    String id = added.get(name);
+                    out.writeByte(id == null ? REMOVED : ADDED);
+                    if (id != null) {
+                        Codec.writeID(out, id);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), STAGE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+        for (File dir : new File[] {LEGACY_ADD, LEGACY_RM}) {
+            for (String name : names(dir)) {
+                Utils.join(dir, name).delete();
+            }
+            dir.delete();
+        }
+        LEGACY_DIR.delete();
+    }
+}
@@ -1,22 +1,33 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Formatter;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -59,6 +70,44 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns a new SHA-1 MessageDigest, for hashing values that are
+     *  too large to pass to sha1 at once. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16))
+                .append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, or null
+     *  if HEX is not a hexadecimal numeral of even length. */
+    static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            result[i] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -133,24 +182,126 @@ class Utils {
     }
 
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     *  FILE may be compressed or a legacy uncompressed object.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
-        try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
-            T result = expectedClass.cast(in.readObject());
-            in.close();
-            return result;
+        return readObject(readObjectContents(file), expectedClass);
+    }
+
+    /** Return an object of type T read from STREAM, which is
+     *  closed afterwards, casting it to EXPECTEDCLASS.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T readObject(InputStream stream,
+                                                 Class<T> expectedClass) {
+        try (ObjectInputStream in = new ObjectInputStream(stream)) {
+            return expectedClass.cast(in.readObject());
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Write OBJ to FILE, compressed as set by core.compression. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        try (ObjectOutputStream out =
+                 new ObjectOutputStream(writeObjectContents(file))) {
+            out.writeObject(obj);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* COMPRESSED OBJECTS */
+
+    /** The bytes that start every compressed object file. */
+    private static final byte[] COMPRESSED_MAGIC = {'G', 'L', 'Z', 1};
+
+    /** The bytes that start every object file written uncompressed.
+     *  Files that start with neither magic were written before objects
+     *  had a header, and hold the plain contents. */
+    private static final byte[] STORED_MAGIC = {'G', 'L', 'Z', 0};
+
+    /** Size of the buffers used to stream object contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Return a stream that writes the contents of the object FILE,
+     *  creating or overwriting it as needed.  The contents are deflated
+     *  while they are written, at the level set by core.compression;
+     *  level 0 writes them uncompressed after STORED_MAGIC, so that
+     *  contents that happen to start with COMPRESSED_MAGIC are not
+     *  taken for a compressed object.  The caller must close the
+     *  stream.  Throws IllegalArgumentException in case of problems. */
+    static OutputStream writeObjectContents(File file) {
+        try {
+            return writeObjectContents(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()), BUFFER_SIZE));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream that writes an object to OUT, deflating it as
+     *  set by core.compression.  Closing it closes OUT. */
+    static OutputStream writeObjectContents(OutputStream out)
+        throws IOException {
+        int level = Config.compressionLevel();
+        if (level == 0) {
+            out.write(STORED_MAGIC);
+            return out;
+        }
+        out.write(COMPRESSED_MAGIC);
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /** Return the position at which the plain contents of the object
+     *  read by CHANNEL start, or -1 if it is compressed, reading its
+     *  first bytes without moving the position of CHANNEL. */
+    static long contentsOffset(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(COMPRESSED_MAGIC.length);
+        channel.read(magic, 0);
+        if (Arrays.equals(magic.array(), COMPRESSED_MAGIC)) {
+            return -1;
+        }
+        return Arrays.equals(magic.array(), STORED_MAGIC)
+                ? STORED_MAGIC.length : 0;
+    }
+
+    /** Return a stream that reads the contents of the object FILE,
+     *  inflating them while they are read if FILE is compressed.  The
+     *  caller must close the stream.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static InputStream readObjectContents(File file) {
+        try {
+            return readObjectContents(Files.newInputStream(file.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream that reads the object stored in IN, inflating
+     *  it while it is read if it is compressed. */
+    static InputStream readObjectContents(InputStream in) throws IOException {
+        InputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(COMPRESSED_MAGIC.length);
+        byte[] magic = buffered.readNBytes(COMPRESSED_MAGIC.length);
+        if (Arrays.equals(magic, COMPRESSED_MAGIC)) {
+            return new InflaterInputStream(buffered);
+        } else if (Arrays.equals(magic, STORED_MAGIC)) {
+            return buffered;
+        }
+        buffered.reset();
+        return buffered;
     }
 
     /* DIRECTORIES */
@@ -218,6 +369,26 @@ class Utils {
 
 
 
+    /* PARALLELISM */
+
+    /** Apply ACTION to each of ITEMS in parallel, on core.threads
+     *  threads, and return once all are done.  An exception thrown
+     *  by ACTION is rethrown as an IllegalArgumentException. */
+    static <T> void parallelForEach(Collection<T> items,
+                                    Consumer<? super T> action) {
+        ForkJoinPool pool = new ForkJoinPool(Config.threads());
+        try {
+            pool.submit(() -> items.parallelStream().forEach(action)).get();
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as